@@ -0,0 +1,45 @@
+package searchengine.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор текста страницы на слова (TokenCounter) и подсчет лемм (Lemmatizer.lemmatizeText)
+ * на текстах от 1 КБ до 2 МБ. Кэш нормальных форм прогревается в первых итерациях, как в работающем приложении.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class LemmatizerBenchmark {
+
+    @Param({"1024", "16384", "262144", "2097152"})
+    public int pageBytes;
+
+    private String text;
+    private Lemmatizer lemmatizer;
+
+    @Setup
+    public void setup() throws IOException {
+        text = RussianText.generate(pageBytes);
+        lemmatizer = new Lemmatizer();
+    }
+
+    @Benchmark
+    public int tokenize() {
+        TokenCounter counter = new TokenCounter();
+        counter.scan(text);
+        counter.flush();
+        return counter.size();
+    }
+
+    @Benchmark
+    public HashMap<String, Long> lemmatize() {
+        return lemmatizer.lemmatizeText(text);
+    }
+}
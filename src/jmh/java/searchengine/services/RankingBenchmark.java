@@ -0,0 +1,103 @@
+package searchengine.services;
+
+import org.openjdk.jmh.annotations.*;
+import searchengine.config.InputList;
+import searchengine.model.Index;
+import searchengine.model.Lemma;
+import searchengine.model.Page;
+import searchengine.model.Site;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбор top-K страниц поиска (InvertedIndex.match и SearchHits) на синтетических списках страниц:
+ * леммы сайта встречаются на страницах с частотами по закону Ципфа, поэтому в запросах
+ * есть и почти сплошные, и редкие списки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RankingBenchmark {
+
+    private static final long SITE_ID = 1L;
+    private static final int LEMMAS = 1000;
+    private static final int LEMMAS_PER_PAGE = 30;
+    private static final int BATCH_PAGES = 5000;
+
+    /**
+     * Ранги лемм запроса по частоте: 0 - самая частая лемма.
+     */
+    private static final Map<String, int[]> QUERIES = Map.of(
+            "frequent", new int[]{0, 1},
+            "mixed", new int[]{0, 5, 50},
+            "rare", new int[]{30, 60, 100});
+
+    @Param({"100000"})
+    public int pages;
+
+    @Param({"frequent", "mixed", "rare"})
+    public String query;
+
+    @Param({"10", "100"})
+    public int topK;
+
+    private SegmentIndexStore segmentStore;
+    private InvertedIndex invertedIndex;
+    private List<String> queryLemmas;
+
+    @Setup
+    public void setup() {
+
+        segmentStore = new SegmentIndexStore(new InputList());
+        invertedIndex = new InvertedIndex(null, segmentStore);
+
+        Site site = new Site();
+        site.setId(SITE_ID);
+        Lemma[] lemmas = new Lemma[LEMMAS];
+        for (int i = 0; i < LEMMAS; i++) {
+            lemmas[i] = new Lemma();
+            lemmas[i].setId((long) i + 1);
+            lemmas[i].setSite(site);
+            lemmas[i].setLemma("лемма" + i);
+        }
+
+        Random random = new Random(RussianText.SEED);
+        double[] cumulative = RussianText.zipf(LEMMAS);
+        List<Index> batch = new ArrayList<>();
+        Set<Integer> pageLemmas = new HashSet<>();
+        for (int pageId = 1; pageId <= pages; pageId++) {
+            Page page = new Page();
+            page.setId((long) pageId);
+            pageLemmas.clear();
+            while (pageLemmas.size() < LEMMAS_PER_PAGE) {
+                pageLemmas.add(RussianText.pick(cumulative, random));
+            }
+            for (int lemma : pageLemmas) {
+                batch.add(new Index(page, lemmas[lemma], 1F + random.nextInt(20) * random.nextFloat()));
+            }
+            if (pageId % BATCH_PAGES == 0 || pageId == pages) {
+                invertedIndex.add(batch);
+                batch.clear();
+            }
+        }
+
+        queryLemmas = Arrays.stream(QUERIES.get(query)).mapToObj(i -> "лемма" + i).toList();
+    }
+
+    @TearDown
+    public void tearDown() {
+        segmentStore.shutdown();
+    }
+
+    @Benchmark
+    public SearchHits.ResultPage firstPage() {
+        SearchHits.Collector collector = new SearchHits.Collector(topK, Long.MAX_VALUE,
+                System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        invertedIndex.match(SITE_ID, queryLemmas, collector);
+        return collector.build().page(0, topK);
+    }
+}
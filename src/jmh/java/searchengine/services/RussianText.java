@@ -0,0 +1,105 @@
+package searchengine.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Воспроизводимый русский текст для бенчмарков: слова из небольшого словаря в разных формах
+ * с частотами по закону Ципфа, знаки препинания, абзацы и изредка латиница и числа.
+ * Один и тот же seed и размер всегда дают один и тот же текст.
+ */
+final class RussianText {
+
+    static final long SEED = 20230417L;
+
+    static final String[] WORDS = {
+            "поиск", "поиска", "поиском", "страница", "страницы", "страниц", "сайт", "сайта", "сайтов",
+            "индекс", "индекса", "индексации", "лемма", "леммы", "лемм", "запрос", "запроса", "запросов",
+            "текст", "текста", "текстом", "слово", "слова", "слов", "результат", "результаты", "результатов",
+            "быстрый", "быстрая", "быстро", "новый", "новая", "новые", "большой", "большая", "большие",
+            "русский", "русского", "язык", "языка", "языке", "система", "системы", "системе",
+            "пользователь", "пользователя", "пользователи", "данные", "данных", "база", "базы", "базе",
+            "работать", "работает", "работают", "искать", "ищет", "находить", "находит", "нашли",
+            "читать", "читает", "писать", "пишет", "хранить", "хранит", "строить", "строит",
+            "город", "города", "городе", "время", "времени", "год", "года", "году", "день", "дня",
+            "человек", "люди", "людей", "дом", "дома", "доме", "работа", "работы", "работе",
+            "вопрос", "вопроса", "ответ", "ответа", "книга", "книги", "статья", "статьи", "новость", "новости",
+            "магазин", "магазина", "товар", "товара", "товары", "цена", "цены", "доставка", "доставки",
+            "красивый", "хороший", "хорошая", "плохой", "первый", "последний", "главный", "важный",
+            "и", "в", "на", "с", "по", "для", "не", "что", "это", "как", "но", "из", "от", "до", "или", "же"
+    };
+
+    private static final String[] OTHER = {"2023", "100", "API", "HTML", "Java", "MySQL", "—", "«", "»"};
+
+    private RussianText() {
+    }
+
+    /**
+     * Текст, занимающий не меньше sizeBytes байт в UTF-8.
+     */
+    static String generate(int sizeBytes) {
+        return generate(sizeBytes, SEED);
+    }
+
+    static String generate(int sizeBytes, long seed) {
+
+        Random random = new Random(seed);
+        double[] cumulative = zipf(WORDS.length);
+        StringBuilder text = new StringBuilder(sizeBytes);
+        int bytes = 0;
+        boolean sentenceStart = true;
+        int wordsInSentence = 0;
+        int sentencesInParagraph = 0;
+
+        while (bytes < sizeBytes) {
+            String word = random.nextInt(40) == 0 ? OTHER[random.nextInt(OTHER.length)] : WORDS[pick(cumulative, random)];
+            if (sentenceStart && Character.isLetter(word.charAt(0))) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            text.append(word);
+            bytes += word.getBytes(StandardCharsets.UTF_8).length;
+            sentenceStart = false;
+            wordsInSentence++;
+
+            if (wordsInSentence > 5 && random.nextInt(10) == 0) {
+                text.append(random.nextInt(5) == 0 ? '!' : random.nextInt(5) == 0 ? '?' : '.');
+                wordsInSentence = 0;
+                sentenceStart = true;
+                if (++sentencesInParagraph > 3 && random.nextInt(4) == 0) {
+                    text.append('\n');
+                    sentencesInParagraph = 0;
+                } else {
+                    text.append(' ');
+                }
+                bytes += 2;
+            } else {
+                String separator = random.nextInt(12) == 0 ? ", " : " ";
+                text.append(separator);
+                bytes += separator.length();
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Накопленные вероятности рангов 1..n по закону Ципфа.
+     */
+    static double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    static int pick(double[] cumulative, Random random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cumulative.length - 1);
+    }
+}
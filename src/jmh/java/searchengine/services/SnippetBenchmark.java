@@ -0,0 +1,73 @@
+package searchengine.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Построение сниппета теми же шагами, что и StatisticsServiceImpl.getSnippet: по указателю,
+ * сохраненному при индексации, и по тексту страницы, если указателя нет. Отдельно измеряется
+ * подготовка указателя при индексации.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SnippetBenchmark {
+
+    private static final List<String> QUERY = List.of("поиск", "страница", "быстрый");
+
+    @Param({"1024", "16384", "262144", "2097152"})
+    public int pageBytes;
+
+    private String text;
+    private Lemmatizer lemmatizer;
+    private Map<String, Integer> lemmaIds;
+    private byte[] snippetIndex;
+    private List<String> queryLemmas;
+    private int[] queryIds;
+
+    @Setup
+    public void setup() throws IOException {
+
+        text = RussianText.generate(pageBytes);
+        lemmatizer = new Lemmatizer();
+
+        List<SnippetIndex.Sentence> sentences = SnippetIndex.split(text, lemmatizer);
+        lemmaIds = new HashMap<>();
+        sentences.forEach(s -> s.lemmas().forEach(l -> lemmaIds.putIfAbsent(l, lemmaIds.size())));
+        snippetIndex = SnippetIndex.of(sentences, l -> lemmaIds.getOrDefault(l, -1)).encode();
+
+        queryLemmas = QUERY.stream().map(lemmatizer::normalForm).toList();
+        queryIds = queryLemmas.stream().mapToInt(l -> lemmaIds.getOrDefault(l, -1)).toArray();
+    }
+
+    @Benchmark
+    public byte[] buildIndex() {
+        return SnippetIndex.of(SnippetIndex.split(text, lemmatizer), l -> lemmaIds.getOrDefault(l, -1)).encode();
+    }
+
+    @Benchmark
+    public String snippetFromIndex() {
+        return highlight(SnippetIndex.decode(snippetIndex));
+    }
+
+    @Benchmark
+    public String snippetFromText() {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < queryIds.length; i++) {
+            ids.put(queryLemmas.get(i), queryIds[i]);
+        }
+        return highlight(SnippetIndex.of(SnippetIndex.split(text, lemmatizer), l -> ids.getOrDefault(l, -1)));
+    }
+
+    private String highlight(SnippetIndex index) {
+        int[] window = index.window(queryIds);
+        return window == null ? null
+                : SnippetIndex.highlight(text, window[0], window[1], new HashSet<>(queryLemmas), lemmatizer);
+    }
+}
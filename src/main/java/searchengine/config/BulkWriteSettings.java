@@ -0,0 +1,11 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class BulkWriteSettings {
+    private int rowsPerInsert = 1000;
+    private int idBlockSize = 10000;
+}
@@ -0,0 +1,14 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class CompressionSettings {
+    private boolean enabled = false;
+    private int level = 6;
+    private boolean trainDictionary = true;
+    private int dictionarySamples = 50;
+    private int dictionarySize = 32 * 1024;
+}
@@ -0,0 +1,13 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class IndexStoreSettings {
+    private String type = "memory";
+    private String directory = "segments";
+    private long flushPostings = 1_000_000;
+    private int maxSegments = 8;
+}
@@ -8,4 +8,7 @@ import lombok.Setter;
 public class Input {
     private String url;
     private String name;
+    private double requestsPerSecond = 2;
+    private long crawlDelay = 0;
+    private Integer shard;
 }
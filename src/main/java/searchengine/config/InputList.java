@@ -5,6 +5,7 @@ import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.util.List;
 
 @Getter
@@ -13,4 +14,29 @@ import java.util.List;
 @ConfigurationProperties(prefix = "indexing-settings")
 public class InputList {
     private List<Input> input;
+    private String frontierDir = "frontier";
+    private boolean incremental;
+    private PipelineSettings pipeline = new PipelineSettings();
+    private BulkWriteSettings bulkWrite = new BulkWriteSettings();
+    private SearchCacheSettings searchCache = new SearchCacheSettings();
+    private SearchSettings search = new SearchSettings();
+    private CompressionSettings compression = new CompressionSettings();
+    private ShardingSettings sharding = new ShardingSettings();
+    private IndexStoreSettings indexStore = new IndexStoreSettings();
+    private ProgressSettings progress = new ProgressSettings();
+
+    /**
+     * В шардированном режиме экземпляр индексирует только свои сайты: заданные ему явно
+     * параметром shard или выпавшие ему по хэшу адреса.
+     */
+    @PostConstruct
+    public void assignShard() {
+        int count = sharding.getShardCount();
+        if (count > 1 && input != null) {
+            input = input.stream()
+                    .filter(i -> (i.getShard() != null ? i.getShard() : Math.floorMod(i.getUrl().hashCode(), count))
+                            == sharding.getShardIndex())
+                    .toList();
+        }
+    }
 }
@@ -0,0 +1,15 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class PipelineSettings {
+    private int fetchParallelism = Runtime.getRuntime().availableProcessors();
+    private int httpThreads = 4;
+    private int lemmatizeParallelism = 2;
+    private int writeParallelism = 1;
+    private int queueCapacity = 100;
+    private int batchSize = 50;
+}
@@ -0,0 +1,12 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ProgressSettings {
+    private long intervalMillis = 500;
+    private long heartbeatMillis = 15000;
+    private long emitterTimeoutMillis = 1800000;
+}
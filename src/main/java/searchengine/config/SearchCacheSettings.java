@@ -0,0 +1,12 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class SearchCacheSettings {
+    private int maxEntries = 1000;
+    private long ttlSeconds = 600;
+    private int depth = 100;
+}
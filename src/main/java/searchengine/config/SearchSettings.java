@@ -0,0 +1,13 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class SearchSettings {
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long deadlineMillis = 1000;
+    private int maxLimit = 100;
+    private int maxDepth = 1000;
+}
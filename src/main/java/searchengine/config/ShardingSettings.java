@@ -0,0 +1,17 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class ShardingSettings {
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    private boolean coordinator;
+    private List<String> shards = new ArrayList<>();
+    private long timeoutMillis = 5000;
+}
@@ -1,8 +1,11 @@
 package searchengine.controllers;
 
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import searchengine.dto.statistics.StatisticsResponse;
+import searchengine.services.IndexingProgress;
 import searchengine.services.StatisticsService;
 
 @RestController
@@ -10,14 +13,16 @@ import searchengine.services.StatisticsService;
 public class ApiController {
 
     private final StatisticsService statisticsService;
+    private final IndexingProgress indexingProgress;
 
-    public ApiController(StatisticsService statisticsService) {
+    public ApiController(StatisticsService statisticsService, IndexingProgress indexingProgress) {
         this.statisticsService = statisticsService;
+        this.indexingProgress = indexingProgress;
     }
 
     @GetMapping("/startIndexing")
-    public ResponseEntity<StatisticsResponse> startIndexing() {
-        return ResponseEntity.ok(statisticsService.startIndexing());
+    public ResponseEntity<StatisticsResponse> startIndexing(@RequestParam(required = false) Boolean incremental) {
+        return ResponseEntity.ok(statisticsService.startIndexing(incremental));
     }
 
     @GetMapping("/stopIndexing")
@@ -35,8 +40,17 @@ public class ApiController {
         return ResponseEntity.ok(statisticsService.getStatistics());
     }
 
+    /**
+     * Поток server-sent events с ходом индексации сайтов вместо повторных запросов /statistics.
+     */
+    @GetMapping(value = "/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter progress() {
+        return indexingProgress.subscribe();
+    }
+
     @GetMapping("/search")
-    public ResponseEntity<StatisticsResponse> search(@RequestParam String query, String site, Long offset, Long limit) {
-        return ResponseEntity.ok(statisticsService.search(query, site, offset, limit));
+    public ResponseEntity<StatisticsResponse> search(@RequestParam String query, String site, Long offset, Long limit,
+                                                     String cursor) {
+        return ResponseEntity.ok(statisticsService.search(query, site, offset, limit, cursor));
     }
 }
@@ -1,11 +1,13 @@
 package searchengine.dto.statistics;
 
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import searchengine.model.Status;
 
 import java.time.ZonedDateTime;
 
 @Data
+@NoArgsConstructor
 public class DetailedStatisticsItem {
     private String url;
     private String name;
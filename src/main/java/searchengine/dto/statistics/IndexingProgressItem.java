@@ -0,0 +1,20 @@
+package searchengine.dto.statistics;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import searchengine.model.Status;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IndexingProgressItem {
+    private String url;
+    private String name;
+    private Status status;
+    private String error;
+    private Long fetched;
+    private Long indexed;
+    private Long lemmas;
+    private Long fetchErrors;
+}
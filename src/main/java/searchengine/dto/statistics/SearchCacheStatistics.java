@@ -0,0 +1,16 @@
+package searchengine.dto.statistics;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchCacheStatistics {
+    private Long hits;
+    private Long misses;
+    private Double hitRate;
+    private Long evictions;
+    private Integer size;
+}
@@ -12,7 +12,10 @@ public class StatisticsResponse {
     private StatisticsData statistics;
     private Long count;
     private List<SearchData> data;
+    private String nextCursor;
+    private Float maxScore;
     private String error;
+    private List<String> missingShards;
 
     public StatisticsResponse(Boolean result) {
         this.result = result;
@@ -0,0 +1,27 @@
+package searchengine.model;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * Словарь для сжатия текстов страниц сайта, обученный на части его страниц.
+ * У сайта один словарь, он не меняется, пока сайт не удален.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "content_dictionary")
+public class ContentDictionary {
+
+    @Id
+    @Column(name = "site_id", columnDefinition = "INT", nullable = false)
+    private Long siteId;
+
+    @Lob
+    @Column(columnDefinition = "MEDIUMBLOB", nullable = false)
+    private byte[] data;
+}
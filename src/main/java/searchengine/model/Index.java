@@ -10,7 +10,8 @@ import javax.persistence.*;
 @Getter
 @Setter
 @NoArgsConstructor
-@Table(name = "\"index\"")
+@Table(name = "\"index\"", uniqueConstraints = @UniqueConstraint(name = "uk_index_lemma_page",
+        columnNames = {"lemma_id", "page_id"}))
 public class Index {
 
     @Id
@@ -10,7 +10,8 @@ import java.util.List;
 @Getter
 @Setter
 @NoArgsConstructor
-@Table(name = "lemma")
+@Table(name = "lemma", uniqueConstraints = @UniqueConstraint(name = "uk_lemma_site_lemma",
+        columnNames = {"site_id", "lemma"}))
 public class Lemma {
 
     @Id
@@ -33,17 +33,22 @@ public class Page {
     @Column
     private String title;
 
-    @Column(columnDefinition = "MEDIUMTEXT", nullable = false)
-    private String content;
+    @Column
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    @Column(name = "content_hash")
+    private Long contentHash;
 
     @OneToMany(mappedBy = "page", cascade = CascadeType.ALL)
     private List<searchengine.model.Index> index;
 
-    public Page(Site site, String path, Long code, String content, String title) {
+    public Page(Site site, String path, Long code, String title) {
         this.site = site;
         this.path = path;
         this.code = code;
-        this.content = content;
         this.title = title;
     }
 
@@ -0,0 +1,87 @@
+package searchengine.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import searchengine.services.PageContentListener;
+
+import javax.persistence.*;
+
+/**
+ * Текст страницы и указатель для сниппетов хранятся отдельно от метаданных страницы
+ * и читаются только там, где нужны: при индексации и построении сниппетов.
+ * Текст хранится либо как есть в столбце content, либо сжатым в content_compressed;
+ * сжатие и распаковка выполняются в PageContentListener при записи и чтении.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@EntityListeners(PageContentListener.class)
+@Table(name = "page_content")
+public class PageContent {
+
+    @Id
+    @Column(name = "page_id", columnDefinition = "INT", nullable = false)
+    private Long id;
+
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "page_id")
+    private Page page;
+
+    @Setter(AccessLevel.NONE)
+    @Column(name = "content", columnDefinition = "MEDIUMTEXT")
+    private String plainContent;
+
+    @Setter(AccessLevel.NONE)
+    @Lob
+    @Column(name = "content_compressed", columnDefinition = "MEDIUMBLOB")
+    private byte[] compressed;
+
+    @Setter(AccessLevel.NONE)
+    @Column(name = "dictionary_id", columnDefinition = "INT")
+    private Long dictionaryId;
+
+    @Lob
+    @Column(name = "snippet_index", columnDefinition = "MEDIUMBLOB")
+    private byte[] snippetIndex;
+
+    @Transient
+    private String content;
+
+    public PageContent(Page page, String content) {
+        this.page = page;
+        setContent(content);
+    }
+
+    /**
+     * Новый текст сохраняется как есть, при записи PageContentListener может его сжать.
+     */
+    public void setContent(String content) {
+        this.content = content;
+        this.plainContent = content;
+        this.compressed = null;
+        this.dictionaryId = null;
+    }
+
+    public void compress(byte[] compressed, Long dictionaryId) {
+        this.plainContent = null;
+        this.compressed = compressed;
+        this.dictionaryId = dictionaryId;
+    }
+
+    public void decoded(String content) {
+        this.content = content;
+    }
+
+    @Override
+    public String toString() {
+        return "PageContent{" +
+                "id=" + id +
+                ", length=" + (content == null ? 0 : content.length()) +
+                ", compressed=" + (compressed != null) +
+                '}';
+    }
+}
@@ -1,16 +1,30 @@
 package searchengine.repository;
 
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import searchengine.model.Index;
 import searchengine.model.Lemma;
 import searchengine.model.Page;
 
+import javax.persistence.QueryHint;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface IndexRepository extends CrudRepository<Index, Long> {
 
     List<Index> findAllByPageId(Long id);
+
+    @Query("select i from Index i join fetch i.lemma where i.page.id = :pageId")
+    List<Index> findAllWithLemmaByPageId(Long pageId);
     List<Index> findAllByLemma(Lemma lemma);
     List<Index> findAllByLemmaAndPage(Lemma lemma, Page page);
     Index findByLemmaAndPage(Lemma lemma, Page page);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select l.site.id as siteId, l.id as lemmaId, l.lemma as lemma, i.page.id as pageId, i.rank as rank " +
+            "from Index i join i.lemma l")
+    Stream<PostingProjection> streamAllPostings();
 }
@@ -1,5 +1,6 @@
 package searchengine.repository;
 
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import searchengine.model.Lemma;
 import searchengine.model.Site;
@@ -11,4 +12,7 @@ public interface LemmaRepository extends CrudRepository<Lemma, Long> {
     List<Lemma> findAllByLemma(String lemma);
     Lemma findByLemmaAndSite(String lemma, Site site);
     List<Lemma> findAllBySite(Site site);
+
+    @Query("select l.site.id as siteId, count(l) as count from Lemma l group by l.site.id")
+    List<SiteCount> countBySite();
 }
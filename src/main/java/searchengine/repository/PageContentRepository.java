@@ -0,0 +1,27 @@
+package searchengine.repository;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.PageContent;
+import searchengine.model.Site;
+
+import java.util.List;
+
+@Repository
+public interface PageContentRepository extends CrudRepository<PageContent, Long> {
+
+    @Query("select c from PageContent c join fetch c.page p where p.site = :site and p.code = 200 " +
+            "and not exists (select i.id from Index i where i.page = p)")
+    List<PageContent> findUnindexedBySite(Site site);
+
+    /**
+     * Удаляет текст страницы, не читая его: deleteById сначала загружает сущность и распаковывает текст.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from PageContent c where c.id = :pageId")
+    int deleteContent(Long pageId);
+}
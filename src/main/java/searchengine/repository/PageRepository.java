@@ -1,10 +1,14 @@
 package searchengine.repository;
 
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.Page;
 import searchengine.model.Site;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -16,4 +20,26 @@ public interface PageRepository extends CrudRepository<Page, Long> {
 
     List<Page> findAllByPathAndSite(String path, Site site);
 
+    @Query("select p.site.id as siteId, count(p) as count from Page p group by p.site.id")
+    List<SiteCount> countBySite();
+
+    @Query("select p.id as id, p.site.id as siteId, p.path as path, p.title as title, p.code as code " +
+            "from Page p where p.id in :ids")
+    List<PageSummary> findSummariesByIdIn(Collection<Long> ids);
+
+    @Query("select p.id as id, p.path as path, p.code as code, p.etag as etag, " +
+            "p.lastModified as lastModified, p.contentHash as contentHash from Page p where p.site = :site")
+    List<PageValidator> findValidatorsBySite(Site site);
+
+    @Modifying
+    @Transactional
+    @Query("update Page p set p.etag = :etag, p.lastModified = :lastModified where p.id = :id")
+    void updateValidators(Long id, String etag, String lastModified);
+
+    @Modifying
+    @Transactional
+    @Query("update Page p set p.code = :code, p.title = :title, p.etag = :etag, p.lastModified = :lastModified, " +
+            "p.contentHash = :contentHash where p.id = :id")
+    void updateFetched(Long id, Long code, String title, String etag, String lastModified, Long contentHash);
+
 }
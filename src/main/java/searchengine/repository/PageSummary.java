@@ -0,0 +1,14 @@
+package searchengine.repository;
+
+public interface PageSummary {
+
+    Long getId();
+
+    Long getSiteId();
+
+    String getPath();
+
+    String getTitle();
+
+    Long getCode();
+}
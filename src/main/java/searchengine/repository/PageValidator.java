@@ -0,0 +1,16 @@
+package searchengine.repository;
+
+public interface PageValidator {
+
+    Long getId();
+
+    String getPath();
+
+    Long getCode();
+
+    String getEtag();
+
+    String getLastModified();
+
+    Long getContentHash();
+}
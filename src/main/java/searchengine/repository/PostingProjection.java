@@ -0,0 +1,14 @@
+package searchengine.repository;
+
+public interface PostingProjection {
+
+    Long getSiteId();
+
+    Long getLemmaId();
+
+    String getLemma();
+
+    Long getPageId();
+
+    Float getRank();
+}
@@ -0,0 +1,8 @@
+package searchengine.repository;
+
+public interface SiteCount {
+
+    Long getSiteId();
+
+    Long getCount();
+}
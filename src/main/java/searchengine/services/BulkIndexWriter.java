@@ -0,0 +1,273 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.InputList;
+import searchengine.model.Index;
+import searchengine.model.Lemma;
+import searchengine.model.Site;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Запись лемм и индексов многострочными INSERT в обход поштучного сохранения Hibernate.
+ * Идентификаторы выделяются блоками из той же таблицы sequence, что использует Hibernate,
+ * поэтому с сохраненными через репозитории сущностями они не пересекаются.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class BulkIndexWriter {
+
+    private static final int SEQUENCE_ALLOCATION_SIZE = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final InputList input;
+
+    private long nextId;
+    private long lastId = -1;
+
+    /**
+     * Вставляет новые леммы и прибавляет к частоте уже сохраненных приращение, накопленное партией.
+     * Частота пишется приращением, а не итоговым значением, поэтому не затирает изменения,
+     * сделанные параллельно индексацией отдельной страницы. Новым леммам присваиваются id.
+     *
+     * @return число записанных строк
+     */
+    public int saveLemmas(Map<Lemma, Long> deltas) {
+
+        long start = System.nanoTime();
+        List<Lemma> lemmaList = deltas.entrySet().stream()
+                .filter(e -> e.getKey().getId() == null || e.getValue() != 0L)
+                .map(Map.Entry::getKey).toList();
+
+        List<Lemma> newLemmas = lemmaList.stream().filter(l -> l.getId() == null).toList();
+        long id = allocate(newLemmas.size());
+        for (Lemma lemma : newLemmas) {
+            lemma.setId(id++);
+        }
+
+        insert("INSERT INTO lemma (id, frequency, lemma, site_id) VALUES ", "(?, ?, ?, ?)",
+                " ON DUPLICATE KEY UPDATE frequency = frequency + VALUES(frequency)", lemmaList, (ps, i, lemma) -> {
+                    ps.setLong(i++, lemma.getId());
+                    ps.setLong(i++, deltas.get(lemma));
+                    ps.setString(i++, lemma.getLemma());
+                    ps.setLong(i++, lemma.getSite().getId());
+                    return i;
+                });
+
+        // лемма могла быть вставлена параллельно, например при индексации отдельной страницы:
+        // тогда по ключу (site_id, lemma) обновлена уже существующая строка со своим id
+        newLemmas.stream().collect(Collectors.groupingBy(l -> l.getSite().getId())).forEach((siteId, siteLemmas) -> {
+            Map<String, Long> ids = findLemmaIds(siteId, siteLemmas.stream().map(Lemma::getLemma).toList());
+            siteLemmas.forEach(l -> l.setId(ids.getOrDefault(l.getLemma(), l.getId())));
+        });
+
+        report("lemma", lemmaList.size(), start);
+        return lemmaList.size();
+    }
+
+    /**
+     * Прибавляет к частоте лемм сайта заданные приращения, отсутствующие леммы вставляет.
+     * Строки находятся по уникальному ключу (site_id, lemma).
+     *
+     * @return id всех переданных лемм
+     */
+    public Map<String, Long> addLemmaFrequencies(Site site, Map<String, Long> deltas) {
+
+        long start = System.nanoTime();
+        List<Lemma> rows = new ArrayList<>(deltas.size());
+        long id = allocate(deltas.size());
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            Lemma lemma = new Lemma(site, delta.getKey(), delta.getValue());
+            lemma.setId(id++);
+            rows.add(lemma);
+        }
+
+        insert("INSERT INTO lemma (id, frequency, lemma, site_id) VALUES ", "(?, ?, ?, ?)",
+                " ON DUPLICATE KEY UPDATE frequency = frequency + VALUES(frequency)", rows, (ps, i, lemma) -> {
+                    ps.setLong(i++, lemma.getId());
+                    ps.setLong(i++, lemma.getFrequency());
+                    ps.setString(i++, lemma.getLemma());
+                    ps.setLong(i++, site.getId());
+                    return i;
+                });
+
+        report("lemma", rows.size(), start);
+        return findLemmaIds(site.getId(), rows.stream().map(Lemma::getLemma).toList());
+    }
+
+    /**
+     * Уменьшает на единицу частоту лемм и удаляет те из них, что больше не встречаются ни на одной странице.
+     */
+    public void decrementLemmas(Collection<Long> lemmaIds) {
+        forEachPart(new ArrayList<>(lemmaIds), part -> {
+            String in = placeholders(part.size());
+            jdbcTemplate.update("UPDATE lemma SET frequency = frequency - 1 WHERE id IN (" + in + ")", part.toArray());
+            jdbcTemplate.update("DELETE FROM lemma WHERE frequency <= 0 AND id IN (" + in + ")", part.toArray());
+        });
+    }
+
+    public void saveIndexes(Collection<Index> indexes) {
+        writeIndexes(indexes, "");
+    }
+
+    /**
+     * Вставляет индексы страницы, а ранг уже сохраненных по ключу (lemma_id, page_id) обновляет.
+     */
+    public void upsertIndexes(Collection<Index> indexes) {
+        writeIndexes(indexes, " ON DUPLICATE KEY UPDATE `rank` = VALUES(`rank`)");
+    }
+
+    private void writeIndexes(Collection<Index> indexes, String tail) {
+
+        long start = System.nanoTime();
+        List<Index> indexList = new ArrayList<>(indexes);
+
+        long id = allocate(indexList.size());
+        for (Index index : indexList) {
+            index.setId(id++);
+        }
+
+        insert("INSERT INTO `index` (id, `rank`, lemma_id, page_id) VALUES ", "(?, ?, ?, ?)", tail,
+                indexList, (ps, i, index) -> {
+                    ps.setLong(i++, index.getId());
+                    ps.setFloat(i++, index.getRank());
+                    ps.setLong(i++, index.getLemma().getId());
+                    ps.setLong(i++, index.getPage().getId());
+                    return i;
+                });
+
+        report("index", indexList.size(), start);
+    }
+
+    /**
+     * Записывает указатели для сниппетов, построенные при индексации, по id страниц.
+     */
+    public void saveSnippets(Map<Long, byte[]> snippets) {
+
+        jdbcTemplate.batchUpdate("UPDATE page_content SET snippet_index = ? WHERE page_id = ?",
+                new ArrayList<>(snippets.entrySet()), input.getBulkWrite().getRowsPerInsert(), (ps, snippet) -> {
+                    ps.setBytes(1, snippet.getValue());
+                    ps.setLong(2, snippet.getKey());
+                });
+    }
+
+    /**
+     * Удаляет старые индексы переиндексированных страниц.
+     */
+    public void deleteIndexes(Collection<Index> indexes) {
+        forEachPart(indexes.stream().map(Index::getId).toList(), part ->
+                jdbcTemplate.update("DELETE FROM `index` WHERE id IN (" + placeholders(part.size()) + ")", part.toArray()));
+    }
+
+    /**
+     * Удаляет леммы сайта, которые после переиндексации не встречаются ни на одной странице.
+     */
+    public int deleteUnusedLemmas(Long siteId) {
+        return jdbcTemplate.update("DELETE FROM lemma WHERE site_id = ? AND (frequency <= 0 " +
+                "OR NOT EXISTS (SELECT 1 FROM `index` i WHERE i.lemma_id = lemma.id))", siteId);
+    }
+
+    private Map<String, Long> findLemmaIds(Long siteId, List<String> lemmas) {
+
+        Map<String, Long> ids = new HashMap<>();
+        forEachPart(lemmas, part -> {
+            List<Object> args = new ArrayList<>(part.size() + 1);
+            args.add(siteId);
+            args.addAll(part);
+            jdbcTemplate.query("SELECT id, lemma FROM lemma WHERE site_id = ? AND lemma IN (" + placeholders(part.size()) + ")",
+                    rs -> {
+                        ids.put(rs.getString(2), rs.getLong(1));
+                    }, args.toArray());
+        });
+        return ids;
+    }
+
+    private <T> void forEachPart(List<T> rows, Consumer<List<T>> action) {
+        int rowsPerInsert = input.getBulkWrite().getRowsPerInsert();
+        for (int from = 0; from < rows.size(); from += rowsPerInsert) {
+            action.accept(rows.subList(from, Math.min(rows.size(), from + rowsPerInsert)));
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private <T> void insert(String head, String row, String tail, List<T> rows, RowBinder<T> binder) {
+
+        int rowsPerInsert = input.getBulkWrite().getRowsPerInsert();
+        for (int from = 0; from < rows.size(); from += rowsPerInsert) {
+            List<T> part = rows.subList(from, Math.min(rows.size(), from + rowsPerInsert));
+            String sql = head + String.join(", ", Collections.nCopies(part.size(), row)) + tail;
+            jdbcTemplate.update(sql, ps -> {
+                int i = 1;
+                for (T r : part) {
+                    i = binder.bind(ps, i, r);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return первый из count подряд идущих свободных идентификаторов
+     */
+    private synchronized long allocate(int count) {
+
+        if (lastId - nextId + 1 < count) {
+            reserve(Math.max(count, input.getBulkWrite().getIdBlockSize()));
+        }
+        long first = nextId;
+        nextId += count;
+        return first;
+    }
+
+    /**
+     * Сдвигает next_val так, чтобы Hibernate при следующем чтении получил пул выше выделенного блока.
+     */
+    private void reserve(int count) {
+
+        long step = ((count + SEQUENCE_ALLOCATION_SIZE - 1) / SEQUENCE_ALLOCATION_SIZE + 1) * SEQUENCE_ALLOCATION_SIZE;
+        Long current = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE `sequence` SET next_val = LAST_INSERT_ID(next_val + " + step + ")");
+                try (ResultSet rs = statement.executeQuery("SELECT LAST_INSERT_ID()")) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        });
+
+        nextId = current - step + 1;
+        lastId = current - SEQUENCE_ALLOCATION_SIZE;
+
+        log.info("BulkIndexWriter in reserve reserved ids {}..{}", nextId, lastId);
+    }
+
+    private void report(String table, int rows, long start) {
+
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        log.info("BulkIndexWriter wrote {} rows to {} in {} ms ({} rows/s)",
+                rows, table, nanos / 1_000_000, rows * 1_000_000_000L / nanos);
+    }
+
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        int bind(PreparedStatement ps, int index, T row) throws SQLException;
+    }
+}
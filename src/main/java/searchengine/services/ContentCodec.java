@@ -0,0 +1,230 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.CompressionSettings;
+import searchengine.config.InputList;
+import searchengine.model.PageContent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие текстов страниц алгоритмом deflate. Для каждого сайта обучается словарь
+ * из строк, повторяющихся на многих страницах (меню, подвалы, шаблонные блоки):
+ * с ним короткие страницы сайта сжимаются намного лучше, чем по отдельности.
+ * Пока словарь сайта не обучен, страницы сжимаются без словаря, а их тексты копятся как образцы.
+ * <p>
+ * Используется из PageContentListener, который создается вместе с EntityManagerFactory,
+ * поэтому менеджер транзакций, зависящий от нее, получается лениво.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class ContentCodec {
+
+    private static final int MIN_DICTIONARY_LINE = 8;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputList input;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+
+    private final Map<Long, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private final Set<Long> missingDictionaries = ConcurrentHashMap.newKeySet();
+    private final Map<Long, List<String>> samples = new HashMap<>();
+
+    public void encode(PageContent pageContent) {
+
+        CompressionSettings settings = input.getCompression();
+        String plain = pageContent.getPlainContent();
+        if (plain == null || !settings.isEnabled()) {
+            return;
+        }
+
+        Long siteId = pageContent.getPage().getSite().getId();
+        byte[] dictionary = dictionaryFor(siteId, plain);
+        pageContent.compress(deflate(plain.getBytes(StandardCharsets.UTF_8), dictionary),
+                dictionary == null ? null : siteId);
+    }
+
+    public void decode(PageContent pageContent) {
+
+        if (pageContent.getCompressed() == null) {
+            pageContent.decoded(pageContent.getPlainContent());
+            return;
+        }
+        byte[] dictionary = pageContent.getDictionaryId() == null ? null : dictionary(pageContent.getDictionaryId());
+        if (pageContent.getDictionaryId() != null && dictionary == null) {
+            throw new IllegalStateException("No compression dictionary for site " + pageContent.getDictionaryId());
+        }
+        pageContent.decoded(new String(inflate(pageContent.getCompressed(), dictionary), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Сохраненный словарь сайта или null, если он еще не обучен.
+     */
+    public byte[] dictionary(Long siteId) {
+
+        byte[] dictionary = dictionaries.get(siteId);
+        if (dictionary != null || missingDictionaries.contains(siteId)) {
+            return dictionary;
+        }
+        List<byte[]> found = jdbcTemplate.queryForList(
+                "SELECT data FROM content_dictionary WHERE site_id = ?", byte[].class, siteId);
+        if (found.isEmpty()) {
+            missingDictionaries.add(siteId);
+            return null;
+        }
+        dictionaries.put(siteId, found.get(0));
+        return found.get(0);
+    }
+
+    /**
+     * Обучает и сохраняет словарь сайта. Если словарь уже сохранен другим потоком, возвращает его.
+     * Словарь записывается в отдельной транзакции: откат транзакции страницы, во время записи
+     * которой он обучен, не должен оставить сжатые с ним страницы без словаря.
+     */
+    public byte[] train(Long siteId, List<String> texts) {
+
+        byte[] dictionary = buildDictionary(texts, input.getCompression().getDictionarySize());
+        if (dictionary.length == 0) {
+            return null;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager.getObject());
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.executeWithoutResult(status -> jdbcTemplate.update(
+                "INSERT IGNORE INTO content_dictionary (site_id, data) VALUES (?, ?)", siteId, dictionary));
+        missingDictionaries.remove(siteId);
+        dictionaries.remove(siteId);
+        byte[] stored = dictionary(siteId);
+
+        log.info("ContentCodec in train built dictionary of {} bytes for site {} from {} pages",
+                stored == null ? 0 : stored.length, siteId, texts.size());
+        return stored;
+    }
+
+    public void forget(Long siteId) {
+        dictionaries.remove(siteId);
+        missingDictionaries.remove(siteId);
+        synchronized (samples) {
+            samples.remove(siteId);
+        }
+    }
+
+    public byte[] deflate(byte[] data, byte[] dictionary) {
+
+        Deflater deflater = new Deflater(input.getCompression().getLevel());
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] inflate(byte[] data, byte[] dictionary) {
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null) {
+                        throw new IllegalStateException("Compressed content requires a dictionary");
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (count == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Compressed content is truncated");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed content is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private byte[] dictionaryFor(Long siteId, String text) {
+
+        CompressionSettings settings = input.getCompression();
+        byte[] dictionary = dictionary(siteId);
+        if (dictionary != null || !settings.isTrainDictionary()) {
+            return dictionary;
+        }
+
+        List<String> ready = null;
+        synchronized (samples) {
+            List<String> siteSamples = samples.computeIfAbsent(siteId, id -> new ArrayList<>());
+            siteSamples.add(text);
+            if (siteSamples.size() >= settings.getDictionarySamples()) {
+                ready = samples.remove(siteId);
+            }
+        }
+        return ready == null ? null : train(siteId, ready);
+    }
+
+    /**
+     * Словарь - строки, встретившиеся хотя бы на двух страницах, в порядке возрастания пользы
+     * (число страниц на длину): deflate дешевле ссылается на конец словаря.
+     */
+    static byte[] buildDictionary(List<String> texts, int size) {
+
+        Map<String, Integer> lineCounts = new HashMap<>();
+        for (String text : texts) {
+            Set<String> lines = new HashSet<>();
+            for (String line : text.split("\n")) {
+                if (line.strip().length() >= MIN_DICTIONARY_LINE) {
+                    lines.add(line + "\n");
+                }
+            }
+            lines.forEach(line -> lineCounts.merge(line, 1, Integer::sum));
+        }
+
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>(lineCounts.entrySet());
+        candidates.removeIf(e -> e.getValue() < 2);
+        candidates.sort(Comparator.comparingLong((Map.Entry<String, Integer> e) ->
+                (long) e.getValue() * e.getKey().length()).reversed());
+
+        List<byte[]> chosen = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            byte[] bytes = candidate.getKey().getBytes(StandardCharsets.UTF_8);
+            if (total + bytes.length <= size) {
+                chosen.add(bytes);
+                total += bytes.length;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            out.writeBytes(chosen.get(i));
+        }
+        return out.toByteArray();
+    }
+}
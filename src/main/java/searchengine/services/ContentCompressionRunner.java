@@ -0,0 +1,122 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import searchengine.config.InputList;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Сжимает уже сохраненные тексты страниц, если приложение запущено с параметром --compress-content.
+ * Для каждого сайта при необходимости обучается словарь, затем страницы сжимаются партиями.
+ * Каждая сжатая страница распаковывается для проверки. В журнал выводятся степень сжатия
+ * и скорость сжатия и распаковки.
+ */
+@Log4j2
+@Order(2)
+@Component
+@RequiredArgsConstructor
+public class ContentCompressionRunner implements ApplicationRunner {
+
+    private static final String OPTION = "compress-content";
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ContentCodec contentCodec;
+    private final InputList input;
+
+    private record Row(long pageId, String content) {
+    }
+
+    private record Stats(long pages, long plainBytes, long compressedBytes, long encodeNanos, long decodeNanos) {
+
+        Stats plus(Stats other) {
+            return new Stats(pages + other.pages, plainBytes + other.plainBytes, compressedBytes + other.compressedBytes,
+                    encodeNanos + other.encodeNanos, decodeNanos + other.decodeNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pages %d, %.1f MB -> %.1f MB, ratio %.2f, encode %.1f MB/s, decode %.1f MB/s",
+                    pages, plainBytes / 1e6, compressedBytes / 1e6,
+                    compressedBytes == 0 ? 0 : (double) plainBytes / compressedBytes,
+                    encodeNanos == 0 ? 0 : plainBytes * 1e3 / encodeNanos,
+                    decodeNanos == 0 ? 0 : plainBytes * 1e3 / decodeNanos);
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+
+        if (!args.containsOption(OPTION)) {
+            return;
+        }
+        if (!input.getCompression().isEnabled()) {
+            log.warn("ContentCompressionRunner in run skipped: indexing-settings.compression.enabled is false");
+            return;
+        }
+
+        log.info("ContentCompressionRunner in run started compressing stored page content");
+
+        Stats total = new Stats(0, 0, 0, 0, 0);
+        for (Long siteId : jdbcTemplate.queryForList("SELECT id FROM site", Long.class)) {
+            Stats site = compressSite(siteId);
+            log.info("ContentCompressionRunner in run compressed site {}: {}", siteId, site);
+            total = total.plus(site);
+        }
+
+        log.info("ContentCompressionRunner in run finished: {}", total);
+    }
+
+    private Stats compressSite(Long siteId) {
+
+        byte[] dictionary = contentCodec.dictionary(siteId);
+        if (dictionary == null && input.getCompression().isTrainDictionary()) {
+            dictionary = contentCodec.train(siteId, jdbcTemplate.queryForList("SELECT c.content FROM page_content c " +
+                    "JOIN page p ON p.id = c.page_id WHERE p.site_id = ? AND c.content IS NOT NULL LIMIT ?",
+                    String.class, siteId, input.getCompression().getDictionarySamples()));
+        }
+        Long dictionaryId = dictionary == null ? null : siteId;
+
+        Stats stats = new Stats(0, 0, 0, 0, 0);
+        long lastId = 0;
+        while (true) {
+            List<Row> rows = jdbcTemplate.query("SELECT c.page_id, c.content FROM page_content c " +
+                            "JOIN page p ON p.id = c.page_id WHERE p.site_id = ? AND c.content IS NOT NULL " +
+                            "AND c.page_id > ? ORDER BY c.page_id LIMIT ?",
+                    (rs, i) -> new Row(rs.getLong(1), rs.getString(2)), siteId, lastId, BATCH_SIZE);
+            if (rows.isEmpty()) {
+                return stats;
+            }
+
+            List<Object[]> updates = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                byte[] plain = row.content().getBytes(StandardCharsets.UTF_8);
+
+                long start = System.nanoTime();
+                byte[] compressed = contentCodec.deflate(plain, dictionary);
+                long encoded = System.nanoTime();
+                byte[] restored = contentCodec.inflate(compressed, dictionary);
+                long decoded = System.nanoTime();
+
+                if (!Arrays.equals(plain, restored)) {
+                    throw new IllegalStateException("Compressed content of page " + row.pageId() + " does not match");
+                }
+                updates.add(new Object[]{compressed, dictionaryId, row.pageId()});
+                stats = stats.plus(new Stats(1, plain.length, compressed.length, encoded - start, decoded - encoded));
+            }
+
+            jdbcTemplate.batchUpdate("UPDATE page_content SET content = NULL, content_compressed = ?, dictionary_id = ? " +
+                    "WHERE page_id = ?", updates);
+            lastId = rows.get(rows.size() - 1).pageId();
+        }
+    }
+}
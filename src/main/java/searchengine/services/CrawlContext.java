@@ -0,0 +1,36 @@
+package searchengine.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import searchengine.model.Site;
+import searchengine.model.Status;
+import searchengine.repository.PageContentRepository;
+import searchengine.repository.PageRepository;
+import searchengine.repository.PageValidator;
+import searchengine.repository.SiteRepository;
+
+import java.util.Map;
+
+@Getter
+@AllArgsConstructor
+public class CrawlContext {
+
+    private final Site site;
+    private final SiteRepository siteRepository;
+    private final PageRepository pageRepository;
+    private final PageContentRepository pageContentRepository;
+    private final IndexingPipeline pipeline;
+    private final PolitenessScheduler scheduler;
+    private final PageFetcher fetcher;
+    private final long crawlIntervalNanos;
+    private final VisitedUrls visited;
+    private final CrawlFrontier frontier;
+    private final Map<String, PageValidator> knownPages;
+    private final SearchEngineMetrics metrics;
+    private final IndexingProgress progress;
+
+    public boolean isStopped() {
+        return pipeline.isStopped()
+                || siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED);
+    }
+}
@@ -0,0 +1,183 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Журнал обхода сайта в локальном файле: адреса, поставленные в очередь, и отметки об их обработке.
+ * Записи только дописываются в конец. При повторном открытии журнал читается заново,
+ * из него восстанавливаются необработанные адреса и отпечатки уже встреченных,
+ * после чего файл переписывается в сжатом виде.
+ */
+@Log4j2
+public class CrawlFrontier implements Closeable {
+
+    private static final byte ENQUEUED = 1;
+    private static final byte DONE = 2;
+    private static final byte VISITED = 3;
+    private static final int FLUSH_EVERY = 100;
+
+    private final Path file;
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private final Set<Long> visited = new HashSet<>();
+    private DataOutputStream out;
+    private int unflushed;
+    private int queued;
+
+    public record Entry(String url, int depth) {
+    }
+
+    private CrawlFrontier(Path file) {
+        this.file = file;
+    }
+
+    public static CrawlFrontier open(Path dir, long siteId) throws IOException {
+
+        Files.createDirectories(dir);
+        CrawlFrontier frontier = new CrawlFrontier(file(dir, siteId));
+        if (Files.exists(frontier.file)) {
+            frontier.replay();
+            frontier.compact();
+            frontier.queued = frontier.pending.size();
+        }
+        frontier.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(frontier.file.toFile(), true)));
+        return frontier;
+    }
+
+    public static boolean exists(Path dir, long siteId) {
+        return Files.exists(file(dir, siteId));
+    }
+
+    public static void delete(Path dir, long siteId) {
+        try {
+            Files.deleteIfExists(file(dir, siteId));
+        } catch (IOException e) {
+            log.error("CrawlFrontier failed to delete frontier of site {}", siteId, e);
+        }
+    }
+
+    /**
+     * Адреса, поставленные в очередь, но не обработанные до остановки обхода.
+     */
+    public List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Адреса в очереди обхода: не обработанные из прошлого обхода и поставленные в очередь в этом.
+     */
+    public synchronized int size() {
+        return queued;
+    }
+
+    public void restore(VisitedUrls visitedUrls) {
+        visited.forEach(visitedUrls::add);
+        pending.keySet().forEach(visitedUrls::add);
+    }
+
+    public synchronized void enqueued(String url, int depth) {
+        queued++;
+        write(false, () -> {
+            byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(ENQUEUED);
+            out.writeLong(VisitedUrls.fingerprint(url));
+            out.writeInt(depth);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        });
+    }
+
+    /**
+     * Отмечает адрес обработанным. Вызывается после сохранения страницы. Журнал сбрасывается в файл сразу,
+     * вместе с поставленными перед этим в очередь ссылками страницы, чтобы после остановки сохраненная
+     * страница не считалась необработанной.
+     */
+    public synchronized void done(String url) {
+        queued = Math.max(queued - 1, 0);
+        write(true, () -> {
+            out.writeByte(DONE);
+            out.writeLong(VisitedUrls.fingerprint(url));
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.error("CrawlFrontier failed to close {}", file, e);
+        }
+    }
+
+    private static Path file(Path dir, long siteId) {
+        return dir.resolve("site-" + siteId + ".frontier");
+    }
+
+    private void write(boolean flush, RecordWriter writer) {
+        try {
+            writer.write();
+            if (++unflushed >= FLUSH_EVERY || flush) {
+                out.flush();
+                unflushed = 0;
+            }
+        } catch (IOException e) {
+            log.error("CrawlFrontier failed to write {}", file, e);
+        }
+    }
+
+    /**
+     * Читает журнал до конца или до первой оборванной записи, которая остается после аварийной остановки.
+     */
+    private void replay() throws IOException {
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte type = in.readByte();
+                long fingerprint = in.readLong();
+                if (type == ENQUEUED) {
+                    int depth = in.readInt();
+                    byte[] bytes = new byte[in.readUnsignedShort()];
+                    in.readFully(bytes);
+                    pending.put(fingerprint, new Entry(new String(bytes, StandardCharsets.UTF_8), depth));
+                } else if (pending.remove(fingerprint) != null || type == VISITED) {
+                    visited.add(fingerprint);
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+
+        log.info("CrawlFrontier in replay read {}: pending {}, visited {}", file, pending.size(), visited.size());
+    }
+
+    private void compact() throws IOException {
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (long fingerprint : visited) {
+                compacted.writeByte(VISITED);
+                compacted.writeLong(fingerprint);
+            }
+            for (Map.Entry<Long, Entry> e : pending.entrySet()) {
+                byte[] bytes = e.getValue().url().getBytes(StandardCharsets.UTF_8);
+                compacted.writeByte(ENQUEUED);
+                compacted.writeLong(e.getKey());
+                compacted.writeInt(e.getValue().depth());
+                compacted.writeShort(bytes.length);
+                compacted.write(bytes);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write() throws IOException;
+    }
+}
@@ -0,0 +1,7 @@
+package searchengine.services;
+
+public enum CrawlMode {
+
+    FULL, RESUME, INCREMENTAL
+
+}
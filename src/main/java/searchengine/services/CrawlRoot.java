@@ -0,0 +1,27 @@
+package searchengine.services;
+
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+
+/**
+ * Корневая задача обхода: запускает обход с начальных адресов и завершается вместе со всеми ними.
+ */
+public class CrawlRoot extends CountedCompleter<Void> {
+
+    private final List<CrawlFrontier.Entry> seeds;
+    private final CrawlContext context;
+
+    public CrawlRoot(List<CrawlFrontier.Entry> seeds, CrawlContext context) {
+        this.seeds = seeds;
+        this.context = context;
+    }
+
+    @Override
+    public void compute() {
+        setPendingCount(seeds.size());
+        for (CrawlFrontier.Entry seed : seeds) {
+            new PageFinder(this, seed.url(), seed.depth(), context).fork();
+        }
+        tryComplete();
+    }
+}
@@ -1,54 +1,178 @@
 package searchengine.services;
 
+import io.micrometer.core.instrument.Meter;
 import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.transaction.annotation.Transactional;
-import searchengine.model.Page;
+import searchengine.config.Input;
+import searchengine.config.InputList;
+import searchengine.model.PageContent;
 import searchengine.model.Site;
 import searchengine.model.Status;
+import searchengine.repository.PageContentRepository;
 import searchengine.repository.PageRepository;
+import searchengine.repository.PageValidator;
 import searchengine.repository.SiteRepository;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.util.HashSet;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+@Log4j2
 @Transactional
 @AllArgsConstructor
 public class IndexThread extends Thread {
 
     private final Site site;
+    private final CrawlMode mode;
     private final StatisticsServiceImpl statisticsService;
     private final PageRepository pageRepository;
+    private final PageContentRepository pageContentRepository;
     private final SiteRepository siteRepository;
-
+    private final Lemmatizer lemmatizer;
+    private final InputList input;
+    private final PolitenessScheduler politenessScheduler;
+    private final PageFetcher pageFetcher;
+    private final Input siteSettings;
+    private final SearchEngineMetrics metrics;
+    private final IndexingProgress progress;
 
     @Override
     public void run() {
 
-        PageFinder.setHashSet(new HashSet<>());
-        PageFinder pageFinder = new PageFinder(site.getUrl(), site, siteRepository, pageRepository);
-        ForkJoinPool forkJoinPool = new ForkJoinPool();
+        Path frontierDir = Path.of(input.getFrontierDir());
+        progress.started(site);
+        String error = null;
+
+        try (CrawlFrontier frontier = CrawlFrontier.open(frontierDir, site.getId())) {
+
+            IndexingPipeline pipeline = new IndexingPipeline(site, statisticsService, lemmatizer, input.getPipeline(),
+                    metrics, progress);
+            VisitedUrls visited = new VisitedUrls();
+            visited.add(site.getUrl());
+            frontier.restore(visited);
+
+            // При продолжении обхода сохраненные страницы тоже загружаются: страница, сохраненная перед остановкой,
+            // но не отмеченная в журнале обработанной, обновляется, а не добавляется второй раз.
+            Map<String, PageValidator> knownPages = new HashMap<>();
+            if (mode != CrawlMode.FULL) {
+                pipeline.preload(statisticsService.findLemmas(site));
+                pageRepository.findValidatorsBySite(site).forEach(p -> knownPages.put(p.getPath(), p));
+            }
 
-        try {
-            Thread.sleep(1000);
+            List<CrawlFrontier.Entry> seeds;
+            if (mode == CrawlMode.RESUME) {
+                seeds = frontier.pending();
+                log.info("IndexThread resuming site {} with {} pending pages", site.getUrl(), seeds.size());
+            } else {
+                seeds = new ArrayList<>();
+                seeds.add(new CrawlFrontier.Entry(site.getUrl(), 0));
+                frontier.enqueued(site.getUrl(), 0);
+                if (mode == CrawlMode.INCREMENTAL) {
+                    seedKnownPages(knownPages.values(), visited, frontier, seeds);
+                    log.info("IndexThread re-crawling site {}: {} known pages", site.getUrl(), knownPages.size());
+                }
+            }
+            CrawlContext context = new CrawlContext(site, siteRepository, pageRepository, pageContentRepository, pipeline,
+                    politenessScheduler, pageFetcher,
+                    PolitenessScheduler.intervalNanos(siteSettings.getRequestsPerSecond(), siteSettings.getCrawlDelay()),
+                    visited, frontier, knownPages, metrics, progress);
+            pipeline.start();
+            try {
+                Meter frontierSize = metrics.frontierSize(site.getUrl(), frontier, CrawlFrontier::size);
+                CrawlRoot crawlRoot = new CrawlRoot(seeds, context);
+                ForkJoinPool forkJoinPool = new ForkJoinPool(input.getPipeline().getFetchParallelism());
+
+                Thread.sleep(1000);
+                if (mode == CrawlMode.RESUME) {
+                    for (PageContent page : pageContentRepository.findUnindexedBySite(site)) {
+                        pipeline.accept(page);
+                    }
+                }
+                forkJoinPool.execute(crawlRoot);
+                while (!crawlRoot.isDone() && !context.isStopped()) {
+                    try {
+                        crawlRoot.get(1, TimeUnit.SECONDS);
+                    } catch (TimeoutException ignored) {
+                    } catch (ExecutionException e) {
+                        log.error("IndexThread crawl failed for site {}", site.getUrl(), e);
+                        error = "Ошибка обхода сайта: " + e.getCause();
+                        break;
+                    }
+                }
+                politenessScheduler.release(context);
+                forkJoinPool.shutdownNow();
+                metrics.remove(frontierSize);
+                pipeline.finish();
+                if (error == null) {
+                    error = pipeline.failure();
+                }
+            } finally {
+                politenessScheduler.release(context);
+                pipeline.abort();
+            }
+            if (error == null && pipeline.hasReplacedPages()) {
+                statisticsService.removeUnusedLemmas(site);
+            }
+
+        } catch (IOException e) {
+            log.error("IndexThread failed to open crawl frontier for site {}", site.getUrl(), e);
+            error = "Не удалось открыть журнал обхода: " + e.getMessage();
         } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            Thread.currentThread().interrupt();
+            error = "Индексация прервана";
+        } catch (RuntimeException e) {
+            log.error("IndexThread failed for site {}", site.getUrl(), e);
+            error = "Ошибка индексации: " + e.getMessage();
         }
 
-        forkJoinPool.invoke(pageFinder);
+        if (error != null) {
+            fail(error);
+            return;
+        }
+        if (!siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED)) {
+            CrawlFrontier.delete(frontierDir, site.getId());
+            site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
+            site.setStatus(Status.INDEXED);
+            siteRepository.save(site);
+            progress.statusChanged(site);
+        }
+    }
 
-        forkJoinPool.shutdownNow();
-        site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
-        siteRepository.save(site);
-        List<Page> pageList = pageRepository.findAllBySite(site);
-        pageList = pageList.stream().filter(p -> p.getCode() == 200L).toList();
-        statisticsService.indexPages(pageList);
+    /**
+     * Сайт отмечается прерванным с текстом ошибки. Журнал обхода сохраняется, поэтому следующий запуск
+     * индексации продолжит сайт и доиндексирует страницы, оставшиеся без индексов.
+     */
+    private void fail(String error) {
+        log.warn("IndexThread marks site {} as failed: {}", site.getUrl(), error);
+        site.setStatus(Status.FAILED);
+        site.setLastError(error);
         site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
-        site.setStatus(Status.INDEXED);
         siteRepository.save(site);
+        progress.statusChanged(site);
+    }
+
+    /**
+     * При повторном обходе заново запрашиваются все ранее найденные страницы сайта,
+     * даже если ссылки на них больше не встречаются.
+     */
+    private void seedKnownPages(Collection<PageValidator> knownPages, VisitedUrls visited, CrawlFrontier frontier,
+                                List<CrawlFrontier.Entry> seeds) {
 
+        String root = site.getUrl().endsWith("/") ? site.getUrl().substring(0, site.getUrl().length() - 1) : site.getUrl();
+        for (PageValidator known : knownPages) {
+            String url = root + known.getPath();
+            if (known.getCode() == 200L && visited.add(url)) {
+                seeds.add(new CrawlFrontier.Entry(url, 1));
+                frontier.enqueued(url, 1);
+            }
+        }
     }
 }
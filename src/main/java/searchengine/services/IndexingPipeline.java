@@ -0,0 +1,211 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import searchengine.config.PipelineSettings;
+import searchengine.model.Lemma;
+import searchengine.model.PageContent;
+import searchengine.model.Site;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Конвейер индексации сайта: найденные страницы лемматизируются и записываются в базу
+ * по мере обхода, не дожидаясь его окончания. Между этапами - ограниченные очереди,
+ * поэтому быстрый этап ждет медленный, а не копит страницы в памяти.
+ */
+@Log4j2
+public class IndexingPipeline {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final Site site;
+    private final StatisticsServiceImpl statisticsService;
+    private final Lemmatizer lemmatizer;
+    private final PipelineSettings settings;
+    private final SearchEngineMetrics metrics;
+    private final IndexingProgress progress;
+
+    private final BlockingQueue<PageContent> fetched;
+    private final BlockingQueue<LemmatizedPage> lemmatized;
+    private final ExecutorService lemmatizers;
+    private final ExecutorService writers;
+    private final Map<String, Lemma> siteLemmas = new HashMap<>();
+    private final Set<Long> replacedPages = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean fetchDone;
+    private volatile boolean lemmatizeDone;
+    private volatile boolean stopped;
+    private volatile String failure;
+    private volatile boolean pagesReplaced;
+
+    public IndexingPipeline(Site site, StatisticsServiceImpl statisticsService, Lemmatizer lemmatizer,
+                            PipelineSettings settings, SearchEngineMetrics metrics, IndexingProgress progress) {
+        this.site = site;
+        this.statisticsService = statisticsService;
+        this.lemmatizer = lemmatizer;
+        this.settings = settings;
+        this.metrics = metrics;
+        this.progress = progress;
+        this.fetched = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.lemmatized = new ArrayBlockingQueue<>(settings.getQueueCapacity());
+        this.lemmatizers = Executors.newFixedThreadPool(settings.getLemmatizeParallelism());
+        this.writers = Executors.newFixedThreadPool(settings.getWriteParallelism());
+    }
+
+    public void start() {
+
+        log.info("IndexingPipeline in start for site {}: lemmatizers {}, writers {}, batch {}", site.getUrl(),
+                settings.getLemmatizeParallelism(), settings.getWriteParallelism(), settings.getBatchSize());
+
+        for (int i = 0; i < settings.getLemmatizeParallelism(); i++) {
+            lemmatizers.execute(this::lemmatize);
+        }
+        for (int i = 0; i < settings.getWriteParallelism(); i++) {
+            writers.execute(this::write);
+        }
+    }
+
+    /**
+     * Заполняет словарь лемм сайта уже сохраненными леммами, чтобы продолжить прерванную индексацию.
+     */
+    public void preload(List<Lemma> lemmas) {
+        synchronized (siteLemmas) {
+            lemmas.forEach(l -> siteLemmas.put(l.getLemma(), l));
+        }
+    }
+
+    /**
+     * Передает страницу на индексацию. Блокирует вызывающий поток, пока очередь заполнена.
+     */
+    public void accept(PageContent page) throws InterruptedException {
+        if (!stopped) {
+            fetched.put(page);
+        }
+    }
+
+    /**
+     * Передает на переиндексацию страницу, содержимое которой изменилось с прошлого обхода.
+     */
+    public void acceptChanged(PageContent page) throws InterruptedException {
+        pagesReplaced = true;
+        replacedPages.add(page.getId());
+        accept(page);
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * true, если переиндексирована хотя бы одна ранее сохраненная страница: у лемм, исчезнувших
+     * с таких страниц, частота уменьшена, и после обхода неиспользуемые леммы нужно удалить.
+     */
+    public boolean hasReplacedPages() {
+        return pagesReplaced;
+    }
+
+    /**
+     * Ошибка записи, из-за которой конвейер остановлен, или null. Страницы несохраненной партии
+     * остаются без индексов, поэтому сайт нужно отметить как прерванный, чтобы продолжение их доиндексировало.
+     */
+    public String failure() {
+        return failure;
+    }
+
+    /**
+     * Вызывается после окончания обхода: дожидается, пока все найденные страницы будут записаны.
+     */
+    public void finish() throws InterruptedException {
+
+        fetchDone = true;
+        lemmatizers.shutdown();
+        lemmatizers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        lemmatizeDone = true;
+        writers.shutdown();
+        writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        log.info("IndexingPipeline in finish completed site {}, lemmas: {}", site.getUrl(), siteLemmas.size());
+    }
+
+    /**
+     * Останавливает потоки конвейера, не дожидаясь записи оставшихся страниц.
+     * Вызывается при ошибке обхода, после finish ничего не делает.
+     */
+    public void abort() {
+
+        if (lemmatizers.isTerminated() && writers.isTerminated()) {
+            return;
+        }
+        stopped = true;
+        fetchDone = true;
+        lemmatizeDone = true;
+        lemmatizers.shutdownNow();
+        writers.shutdownNow();
+
+        log.warn("IndexingPipeline in abort stopped site {} before all pages were written", site.getUrl());
+    }
+
+    private int lemmaCount() {
+        synchronized (siteLemmas) {
+            return siteLemmas.size();
+        }
+    }
+
+    private void lemmatize() {
+
+        try {
+            while (!(fetchDone && fetched.isEmpty())) {
+                PageContent page = fetched.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (page == null || stopped) {
+                    continue;
+                }
+                try {
+                    long start = System.nanoTime();
+                    LemmatizedPage lemmatizedPage = new LemmatizedPage(page.getPage(), lemmatizer.lemmatize(page.getContent()),
+                            SnippetIndex.split(page.getContent(), lemmatizer), replacedPages.remove(page.getId()));
+                    metrics.pageLemmatized(site.getUrl(), System.nanoTime() - start);
+                    lemmatized.put(lemmatizedPage);
+                } catch (RuntimeException e) {
+                    log.error("IndexingPipeline in lemmatize failed for page {}", page.getPage().getPath(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+
+        List<LemmatizedPage> batch = new ArrayList<>(settings.getBatchSize());
+        try {
+            while (!(lemmatizeDone && lemmatized.isEmpty())) {
+                LemmatizedPage first = lemmatized.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                lemmatized.drainTo(batch, settings.getBatchSize() - 1);
+                if (!stopped) {
+                    try {
+                        stopped = !statisticsService.indexPages(site, siteLemmas, batch);
+                        if (!stopped) {
+                            progress.pagesIndexed(site, batch.size(), lemmaCount());
+                        }
+                    } catch (RuntimeException e) {
+                        log.error("IndexingPipeline in write failed for site {}", site.getUrl(), e);
+                        failure = "Не удалось записать страницы: " + e.getMessage();
+                        stopped = true;
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package searchengine.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import searchengine.config.InputList;
+import searchengine.config.ProgressSettings;
+import searchengine.dto.statistics.IndexingProgressItem;
+import searchengine.model.Site;
+import searchengine.model.Status;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ход индексации сайтов для подписчиков server-sent events. Потоки обхода и индексации
+ * только увеличивают счетчики и отмечают сайт измененным. Раз в intervalMillis изменения
+ * собираются в одно событие progress, которое сериализуется один раз и рассылается всем подписчикам,
+ * поэтому число подписчиков не влияет на индексацию. Новый подписчик сначала получает состояние всех сайтов.
+ * Все отправки выполняются одним потоком, так что события каждому подписчику приходят по порядку.
+ * У координатора своих сайтов нет: он пересылает подписчикам состояние сайтов, полученное от шардов.
+ */
+@Log4j2
+@Component
+public class IndexingProgress {
+
+    private static final String EVENT = "progress";
+
+    private final ProgressSettings settings;
+    private final ObjectMapper objectMapper;
+    private final Map<Long, SiteProgress> sites = new ConcurrentHashMap<>();
+    private final Set<Long> changed = ConcurrentHashMap.newKeySet();
+    private final Map<String, IndexingProgressItem> shardSites = new ConcurrentHashMap<>();
+    private final Set<String> shardChanged = ConcurrentHashMap.newKeySet();
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService publisher;
+    private long lastSent = System.nanoTime();
+
+    private static final class SiteProgress {
+
+        private final String url;
+        private final String name;
+        private final AtomicLong fetched = new AtomicLong();
+        private final AtomicLong indexed = new AtomicLong();
+        private final AtomicLong fetchErrors = new AtomicLong();
+        private volatile long lemmas;
+        private volatile Status status;
+        private volatile String error;
+
+        SiteProgress(Site site) {
+            this.url = site.getUrl();
+            this.name = site.getName();
+            this.status = site.getStatus();
+            this.error = site.getLastError();
+        }
+
+        IndexingProgressItem toItem() {
+            return new IndexingProgressItem(url, name, status, error, fetched.get(), indexed.get(), lemmas,
+                    fetchErrors.get());
+        }
+    }
+
+    public IndexingProgress(InputList input, ObjectMapper objectMapper) {
+        this.settings = input.getProgress();
+        this.objectMapper = objectMapper;
+        this.publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "progress-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher.scheduleWithFixedDelay(this::publish, settings.getIntervalMillis(), settings.getIntervalMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public SseEmitter subscribe() {
+
+        SseEmitter emitter = new SseEmitter(settings.getEmitterTimeoutMillis());
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+
+        publisher.execute(() -> {
+            List<IndexingProgressItem> items = new ArrayList<>(shardSites.values());
+            sites.values().forEach(progress -> items.add(progress.toItem()));
+            try {
+                emitter.send(event(items));
+                emitters.add(emitter);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("IndexingProgress in subscribe failed to send the current state: {}", e.toString());
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Начало обхода сайта: счетчики сайта обнуляются.
+     */
+    public void started(Site site) {
+        sites.put(site.getId(), new SiteProgress(site));
+        changed.add(site.getId());
+    }
+
+    public void statusChanged(Site site) {
+        SiteProgress progress = sites.computeIfAbsent(site.getId(), id -> new SiteProgress(site));
+        progress.status = site.getStatus();
+        progress.error = site.getLastError();
+        changed.add(site.getId());
+    }
+
+    public void pageFetched(Site site) {
+        SiteProgress progress = sites.get(site.getId());
+        if (progress != null) {
+            progress.fetched.incrementAndGet();
+            changed.add(site.getId());
+        }
+    }
+
+    public void fetchFailed(Site site) {
+        SiteProgress progress = sites.get(site.getId());
+        if (progress != null) {
+            progress.fetchErrors.incrementAndGet();
+            changed.add(site.getId());
+        }
+    }
+
+    /**
+     * @param lemmas число лемм сайта после записи партии
+     */
+    public void pagesIndexed(Site site, int pages, long lemmas) {
+        SiteProgress progress = sites.get(site.getId());
+        if (progress != null) {
+            progress.indexed.addAndGet(pages);
+            progress.lemmas = lemmas;
+            changed.add(site.getId());
+        }
+    }
+
+    /**
+     * Состояние сайтов из события progress шарда, сайты различаются по url.
+     */
+    public void shardProgress(List<IndexingProgressItem> items) {
+        for (IndexingProgressItem item : items) {
+            shardSites.put(item.getUrl(), item);
+            shardChanged.add(item.getUrl());
+        }
+    }
+
+    private void publish() {
+
+        try {
+            List<IndexingProgressItem> items = new ArrayList<>();
+            for (Iterator<Long> it = changed.iterator(); it.hasNext(); ) {
+                SiteProgress progress = sites.get(it.next());
+                it.remove();
+                if (progress != null) {
+                    items.add(progress.toItem());
+                }
+            }
+            for (Iterator<String> it = shardChanged.iterator(); it.hasNext(); ) {
+                IndexingProgressItem item = shardSites.get(it.next());
+                it.remove();
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+
+            if (!items.isEmpty()) {
+                broadcast(event(items));
+            } else if (System.nanoTime() - lastSent > TimeUnit.MILLISECONDS.toNanos(settings.getHeartbeatMillis())) {
+                broadcast(SseEmitter.event().comment("heartbeat"));
+            }
+        } catch (RuntimeException e) {
+            log.error("IndexingProgress in publish failed", e);
+        }
+    }
+
+    private void broadcast(SseEmitter.SseEventBuilder event) {
+
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                emitters.remove(emitter);
+            }
+        }
+        lastSent = System.nanoTime();
+    }
+
+    private SseEmitter.SseEventBuilder event(List<IndexingProgressItem> items) {
+        try {
+            return SseEmitter.event().name(EVENT).data(objectMapper.writeValueAsString(items));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdownNow();
+        emitters.forEach(SseEmitter::complete);
+    }
+}
@@ -0,0 +1,377 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import searchengine.model.Index;
+import searchengine.model.Lemma;
+import searchengine.repository.IndexRepository;
+import searchengine.repository.PostingProjection;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class InvertedIndex {
+
+    static final int MAX_QUERY_LEMMAS = 20;
+    private static final float SCORE_SLACK = 1e-5F;
+    private static final int DEADLINE_CHECK_MASK = 0xFF;
+
+    private final IndexRepository indexRepository;
+    private final SegmentIndexStore segmentStore;
+
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(new Snapshot(0, Map.of(), List.of(), Set.of()));
+    private final Object writeLock = new Object();
+    private long memoryPostings;
+    private boolean merging;
+
+    /**
+     * Неизменяемое состояние индекса. Поиск читает текущий снимок без блокировок,
+     * индексация собирает новый снимок и публикует его целиком.
+     * <p>
+     * При хранении в сегментах sites - изменения после записи последнего сегмента, а droppedSites -
+     * сайты, удаленные после нее. Без сегментов весь индекс находится в sites.
+     */
+    record Snapshot(long generation, Map<Long, SiteIndex> sites, List<Segment> segments, Set<Long> droppedSites) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+
+        if (segmentStore.isEnabled()) {
+            List<Segment> segments = segmentStore.open();
+            if (!segments.isEmpty()) {
+                synchronized (writeLock) {
+                    publish(Map.of(), List.copyOf(segments), Set.of());
+                }
+                log.info("InvertedIndex in load opened {} segments with {} postings", segments.size(),
+                        segments.stream().mapToLong(Segment::postingCount).sum());
+                return;
+            }
+        }
+
+        log.info("InvertedIndex in load started loading postings from the database");
+
+        long start = System.currentTimeMillis();
+        long count = 0;
+        Map<Long, SiteIndex> sites = new HashMap<>();
+
+        synchronized (writeLock) {
+            try (Stream<PostingProjection> stream = indexRepository.streamAllPostings()) {
+                for (Iterator<PostingProjection> it = stream.iterator(); it.hasNext(); count++) {
+                    PostingProjection p = it.next();
+                    sites.computeIfAbsent(p.getSiteId(), id -> new SiteIndex())
+                            .put(p.getLemmaId(), p.getLemma(), p.getPageId().intValue(), p.getRank());
+                }
+            }
+            sites.values().forEach(SiteIndex::seal);
+            publish(sites, List.of(), Set.of());
+            memoryPostings = count;
+            if (segmentStore.isEnabled()) {
+                flush();
+            }
+        }
+
+        log.info("InvertedIndex in load loaded {} postings for {} sites in {} ms",
+                count, sites.size(), System.currentTimeMillis() - start);
+    }
+
+    public void add(Collection<Index> indexList) {
+        update(List.of(), indexList);
+    }
+
+    public void remove(Collection<Index> indexList) {
+        update(indexList, List.of());
+    }
+
+    /**
+     * Удаляет и добавляет индексы одним снимком, чтобы поиск не видел страницу без индексов
+     * в момент ее переиндексации.
+     */
+    public void update(Collection<Index> removed, Collection<Index> added) {
+
+        synchronized (writeLock) {
+            Snapshot current = snapshot.get();
+            Map<Long, SiteIndex> sites = new HashMap<>(current.sites());
+            Map<Long, SiteIndex> edited = new HashMap<>();
+            // страницы, измененные поверх сегментов, скрывают свои старые версии в сегментах
+            boolean layered = !current.segments().isEmpty();
+
+            for (Index index : removed) {
+                Lemma lemma = index.getLemma();
+                int pageId = index.getPage().getId().intValue();
+                SiteIndex siteIndex = editable(sites, edited, lemma.getSite().getId(), layered);
+                if (siteIndex != null) {
+                    if (layered) {
+                        siteIndex.cover(pageId);
+                    }
+                    siteIndex.remove(lemma.getId(), lemma.getLemma(), pageId);
+                }
+            }
+            for (Index index : added) {
+                Lemma lemma = index.getLemma();
+                int pageId = index.getPage().getId().intValue();
+                SiteIndex siteIndex = editable(sites, edited, lemma.getSite().getId(), true);
+                if (layered) {
+                    siteIndex.cover(pageId);
+                }
+                siteIndex.put(lemma.getId(), lemma.getLemma(), pageId, index.getRank());
+            }
+            edited.values().forEach(SiteIndex::seal);
+            publish(sites, current.segments(), current.droppedSites());
+
+            if (segmentStore.isEnabled()) {
+                segmentStore.markDirty();
+                memoryPostings += added.size();
+                if (memoryPostings >= segmentStore.flushPostings()) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    public void removeSite(Long siteId) {
+
+        synchronized (writeLock) {
+            Snapshot current = snapshot.get();
+            Map<Long, SiteIndex> sites = new HashMap<>(current.sites());
+            sites.remove(siteId);
+            Set<Long> droppedSites = current.droppedSites();
+            if (!current.segments().isEmpty()) {
+                droppedSites = new HashSet<>(droppedSites);
+                droppedSites.add(siteId);
+                segmentStore.markDirty();
+            }
+            publish(sites, current.segments(), Collections.unmodifiableSet(droppedSites));
+        }
+    }
+
+    /**
+     * Записывает изменения из памяти в новый сегмент. После записи в памяти остается пустой индекс.
+     * Вызывается под writeLock. Если запись не удалась, изменения остаются в памяти.
+     */
+    private void flush() {
+
+        Snapshot current = snapshot.get();
+        if (current.sites().isEmpty() && current.droppedSites().isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Map<Long, int[]> coveredPages = new HashMap<>();
+        current.sites().forEach((siteId, siteIndex) -> {
+            if (siteIndex.hasCoveredPages()) {
+                coveredPages.put(siteId, siteIndex.coveredPages());
+            }
+        });
+        Iterator<Segment.LemmaPostings> postings = current.sites().entrySet().stream()
+                .flatMap(site -> site.getValue().lemmas().stream()
+                        .map(lemma -> new Segment.LemmaPostings(site.getKey(), lemma,
+                                site.getValue().lemmaId(lemma), site.getValue().postings(lemma).cursor())))
+                .iterator();
+
+        try {
+            Segment segment = segmentStore.write(postings, current.droppedSites(), coveredPages);
+            List<Segment> segments = new ArrayList<>(current.segments());
+            segments.add(segment);
+            segmentStore.commit(segments);
+            segmentStore.markClean();
+            publish(Map.of(), List.copyOf(segments), Set.of());
+            memoryPostings = 0;
+
+            log.info("InvertedIndex in flush wrote {} postings to {} in {} ms, segments: {}", segment.postingCount(),
+                    segment.file(), System.currentTimeMillis() - start, segments.size());
+
+            if (segments.size() > segmentStore.maxSegments() && !merging) {
+                merging = true;
+                segmentStore.submitMerge(this::merge);
+            }
+        } catch (IOException e) {
+            log.error("InvertedIndex in flush failed, postings stay in memory: {}", e.toString());
+        }
+    }
+
+    /**
+     * Сливает все текущие сегменты в один в фоне. Сегменты, записанные за время слияния,
+     * остаются поверх результата. В слитом сегменте нет удаленных сайтов и скрытых старых версий страниц.
+     */
+    private void merge() {
+
+        List<Segment> segments = snapshot.get().segments();
+        long start = System.currentTimeMillis();
+
+        Set<Map.Entry<Long, String>> keys = new LinkedHashSet<>();
+        for (Segment segment : segments) {
+            for (Long siteId : segment.sites()) {
+                segment.lemmas(siteId).forEach(lemma -> keys.add(Map.entry(siteId, lemma)));
+            }
+        }
+        Iterator<Segment.LemmaPostings> postings = keys.stream()
+                .map(key -> {
+                    PostingCursor cursor = PostingCursors.layered(segments, null, false, key.getKey(), key.getValue());
+                    return cursor == null ? null : new Segment.LemmaPostings(key.getKey(), key.getValue(),
+                            PostingCursors.lemmaId(segments, null, false, key.getKey(), key.getValue()), cursor);
+                })
+                .filter(Objects::nonNull)
+                .iterator();
+
+        try {
+            Segment merged = segmentStore.write(postings, Set.of(), Map.of());
+            synchronized (writeLock) {
+                Snapshot current = snapshot.get();
+                List<Segment> result = new ArrayList<>();
+                result.add(merged);
+                result.addAll(current.segments().subList(segments.size(), current.segments().size()));
+                segmentStore.commit(result);
+                snapshot.set(new Snapshot(current.generation(), current.sites(), List.copyOf(result),
+                        current.droppedSites()));
+                merging = false;
+            }
+            segmentStore.delete(segments);
+
+            log.info("InvertedIndex in merge merged {} segments into {} with {} postings in {} ms",
+                    segments.size(), merged.file(), merged.postingCount(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            log.error("InvertedIndex in merge failed: {}", e.toString());
+            synchronized (writeLock) {
+                merging = false;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (segmentStore.isEnabled()) {
+            synchronized (writeLock) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Номер текущего снимка, увеличивается при каждом изменении индекса.
+     */
+    public long generation() {
+        return snapshot.get().generation();
+    }
+
+    private SiteIndex editable(Map<Long, SiteIndex> sites, Map<Long, SiteIndex> edited, Long siteId, boolean create) {
+
+        SiteIndex siteIndex = edited.get(siteId);
+        if (siteIndex == null) {
+            SiteIndex published = sites.get(siteId);
+            if (published == null && !create) {
+                return null;
+            }
+            siteIndex = published == null ? new SiteIndex() : published.copy();
+            edited.put(siteId, siteIndex);
+            sites.put(siteId, siteIndex);
+        }
+        return siteIndex;
+    }
+
+    private void publish(Map<Long, SiteIndex> sites, List<Segment> segments, Set<Long> droppedSites) {
+        snapshot.set(new Snapshot(snapshot.get().generation() + 1, Collections.unmodifiableMap(sites),
+                segments, droppedSites));
+    }
+
+    /**
+     * id лемм сайта в том же порядке, для лемм, которых нет в индексе, -1.
+     */
+    int[] lemmaIds(Long siteId, List<String> lemmas) {
+
+        Snapshot current = snapshot.get();
+        SiteIndex siteIndex = current.sites().get(siteId);
+        boolean dropped = current.droppedSites().contains(siteId);
+        int[] ids = new int[lemmas.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Long id = PostingCursors.lemmaId(current.segments(), siteIndex, dropped, siteId, lemmas.get(i));
+            ids[i] = id == null ? -1 : id.intValue();
+        }
+        return ids;
+    }
+
+    /**
+     * Пересечение списков страниц для всех лемм запроса, начиная с самой редкой.
+     * Релевантность страницы - сумма рангов лемм запроса на ней.
+     * <p>
+     * Ранжирование по схеме MaxScore: для каждого списка известен наибольший ранг, поэтому
+     * до проверки очередной леммы известна верхняя граница релевантности страницы. Если она
+     * ниже порога collector, страница не может попасть в результаты и дальше не проверяется.
+     * Курсоры по остальным спискам только движутся вперед и ищут страницу галопом.
+     * Срок запроса проверяется через каждые 256 страниц самого редкого списка.
+     */
+    void match(Long siteId, Collection<String> lemmas, SearchHits.Collector collector) {
+
+        Snapshot current = snapshot.get();
+        SiteIndex siteIndex = current.sites().get(siteId);
+        boolean dropped = current.droppedSites().contains(siteId);
+        if (lemmas.isEmpty()) {
+            return;
+        }
+
+        List<PostingCursor> lists = new ArrayList<>();
+        for (String lemma : lemmas) {
+            PostingCursor cursor = PostingCursors.layered(current.segments(), siteIndex, dropped, siteId, lemma);
+            if (cursor == null) {
+                return;
+            }
+            lists.add(cursor);
+        }
+        lists.sort(Comparator.comparingLong(PostingCursor::cost));
+        if (lists.size() > MAX_QUERY_LEMMAS) {
+            lists = lists.subList(0, MAX_QUERY_LEMMAS);
+        }
+
+        int n = lists.size();
+        float[] remaining = new float[n + 1];
+        for (int j = n - 1; j >= 0; j--) {
+            remaining[j] = remaining[j + 1] + lists.get(j).maxRank();
+        }
+        PostingCursor rarest = lists.get(0);
+
+        candidates:
+        for (int i = 0; rarest.next(); i++) {
+            if ((i & DEADLINE_CHECK_MASK) == 0 && collector.expired()) {
+                return;
+            }
+            int pageId = rarest.pageId();
+            float score = rarest.rank();
+            for (int j = 1; j < n; j++) {
+                if (cannotEnter(score + remaining[j], collector)) {
+                    collector.prune();
+                    continue candidates;
+                }
+                PostingCursor other = lists.get(j);
+                if (!other.advance(pageId)) {
+                    collector.reject();
+                    break candidates;
+                }
+                if (other.pageId() != pageId) {
+                    collector.reject();
+                    continue candidates;
+                }
+                score += other.rank();
+            }
+            collector.add(pageId, score);
+        }
+    }
+
+    /**
+     * Граница сравнивается с запасом: суммы рангов в другом порядке могут отличаться на ошибку округления.
+     */
+    private static boolean cannotEnter(float bound, SearchHits.Collector collector) {
+        return collector.isFull() && bound * (1F + SCORE_SLACK) < collector.threshold();
+    }
+}
@@ -0,0 +1,14 @@
+package searchengine.services;
+
+import searchengine.model.Page;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @param sentences предложения страницы с их леммами для указателя сниппетов
+ * @param replaced  страница уже была проиндексирована, ее старые индексы нужно заменить
+ */
+public record LemmatizedPage(Page page, Map<String, Long> lemmas, List<SnippetIndex.Sentence> sentences,
+                             boolean replaced) {
+}
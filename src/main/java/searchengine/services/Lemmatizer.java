@@ -1,52 +1,93 @@
 package searchengine.services;
 
-import lombok.Data;
 import org.apache.lucene.morphology.LuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
-@Data
 public class Lemmatizer {
+
+    private static final int CACHE_LIMIT = 200_000;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final List<String> SERVICE_PARTS = List.of("СОЮЗ", "ПРЕДЛ", "МЕЖД", "\sЧАСТ");
+
+    private final LuceneMorphology luceneMorph;
+    private final Map<String, WordForm> cache = new ConcurrentHashMap<>();
+
+    public Lemmatizer() throws IOException {
+        this.luceneMorph = new RussianLuceneMorphology();
+    }
+
     public HashMap<String, Long> lemmatizeText(String text) {
+        return lemmatize(text);
+    }
 
-        HashMap<String, Long> result = new HashMap<>();
-        List<String> forms = new ArrayList<>();
-
-        try {
-            LuceneMorphology luceneMorph = new RussianLuceneMorphology();
-
-            List<String> stringList = List.of(text.toLowerCase().replaceAll("[^а-я]", " ").trim().split("\s+"));
-            System.out.println(stringList);
-
-            stringList
-                    .stream()
-                    .filter(s -> s.length() < 50)
-                    .filter(s -> s.length() > 1)
-                    .filter(s ->
-                            !luceneMorph.getMorphInfo(s).toString().contains("СОЮЗ") &&
-                                    !luceneMorph.getMorphInfo(s).toString().contains("ПРЕДЛ") &&
-                                    !luceneMorph.getMorphInfo(s).toString().contains("МЕЖД") &&
-                                    !luceneMorph.getMorphInfo(s).toString().contains("\sЧАСТ"))
-                    .forEach(s -> forms.add(luceneMorph.getNormalForms(s).get(0)));
-
-            for (String word : forms) {
-                if (result.containsKey(word)) {
-                    result.put(word, result.get(word) + 1L);
-                } else {
-                    result.put(word, 1L);
-                }
+    public HashMap<String, Long> lemmatize(CharSequence text) {
+
+        TokenCounter counter = new TokenCounter();
+        counter.scan(text);
+        counter.flush();
+        return toLemmas(counter);
+    }
+
+    public HashMap<String, Long> lemmatize(Reader reader) throws IOException {
+
+        TokenCounter counter = new TokenCounter();
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+            counter.scan(buffer, 0, read);
+        }
+        counter.flush();
+        return toLemmas(counter);
+    }
+
+    /**
+     * Нормальная форма слова в нижнем регистре или null для служебных частей речи.
+     */
+    public String normalForm(String word) {
+
+        WordForm form = cache.get(word);
+        if (form == null) {
+            form = analyze(word);
+            if (cache.size() >= CACHE_LIMIT) {
+                cache.clear();
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            cache.put(word, form);
         }
+        return form.stopWord() ? null : form.normalForm();
+    }
+
+    private HashMap<String, Long> toLemmas(TokenCounter counter) {
 
+        HashMap<String, Long> result = new HashMap<>();
+        counter.forEach((word, count) -> {
+            String lemma = normalForm(word);
+            if (lemma != null) {
+                result.merge(lemma, (long) count, Long::sum);
+            }
+        });
         return result;
+    }
+
+    private WordForm analyze(String word) {
+
+        for (String info : luceneMorph.getMorphInfo(word)) {
+            for (String part : SERVICE_PARTS) {
+                if (info.contains(part)) {
+                    return new WordForm(null, true);
+                }
+            }
+        }
+        return new WordForm(luceneMorph.getNormalForms(word).get(0), false);
+    }
 
+    private record WordForm(String normalForm, boolean stopWord) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import searchengine.model.PageContent;
+
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Сжимает текст страницы перед записью и распаковывает после чтения.
+ * Создается Hibernate через контейнер бинов Spring, поэтому получает ContentCodec из контекста.
+ */
+@RequiredArgsConstructor
+public class PageContentListener {
+
+    private final ContentCodec contentCodec;
+
+    @PrePersist
+    @PreUpdate
+    public void encode(PageContent pageContent) {
+        contentCodec.encode(pageContent);
+    }
+
+    @PostLoad
+    public void decode(PageContent pageContent) {
+        contentCodec.decode(pageContent);
+    }
+}
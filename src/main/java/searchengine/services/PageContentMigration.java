@@ -0,0 +1,64 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Переносит текст страниц из старого столбца page.content в таблицу page_content
+ * и удаляет столбец: Hibernate с ddl-auto: update лишние столбцы не удаляет,
+ * а NOT NULL столбец без значения не дал бы сохранять новые страницы.
+ * По той же причине снимает NOT NULL с page_content.content, который пуст у сжатых страниц.
+ * Выполняется до ContentCompressionRunner.
+ */
+@Log4j2
+@Order(1)
+@Component
+@RequiredArgsConstructor
+public class PageContentMigration implements ApplicationRunner {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+
+        if (columnExists("page", "content")) {
+            moveContent();
+        }
+        if (columnNotNull("page_content", "content")) {
+            jdbcTemplate.execute("ALTER TABLE page_content MODIFY content MEDIUMTEXT NULL");
+            log.info("PageContentMigration in run made page_content.content nullable");
+        }
+    }
+
+    private void moveContent() {
+
+        log.info("PageContentMigration in moveContent started moving page content to page_content");
+        long start = System.currentTimeMillis();
+
+        boolean withSnippets = columnExists("page", "snippet_index");
+        int moved = jdbcTemplate.update("INSERT INTO page_content (page_id, content, snippet_index) " +
+                "SELECT p.id, p.content, " + (withSnippets ? "p.snippet_index" : "NULL") + " FROM page p " +
+                "LEFT JOIN page_content c ON c.page_id = p.id WHERE c.page_id IS NULL");
+        jdbcTemplate.execute("ALTER TABLE page DROP COLUMN content" + (withSnippets ? ", DROP COLUMN snippet_index" : ""));
+
+        log.info("PageContentMigration in moveContent moved {} pages in {} ms", moved, System.currentTimeMillis() - start);
+    }
+
+    private boolean columnExists(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?", Integer.class, table, column);
+        return count != null && count > 0;
+    }
+
+    private boolean columnNotNull(String table, String column) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.columns " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ? AND is_nullable = 'NO'",
+                Integer.class, table, column);
+        return count != null && count > 0;
+    }
+}
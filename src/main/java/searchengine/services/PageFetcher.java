@@ -0,0 +1,79 @@
+package searchengine.services;
+
+import org.springframework.stereotype.Component;
+import searchengine.config.InputList;
+import searchengine.repository.PageValidator;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Асинхронная загрузка страниц. Запросы выполняются неблокирующим HttpClient,
+ * поэтому число одновременно загружаемых страниц не зависит от числа потоков.
+ */
+@Component
+public class PageFetcher {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/111.0.0.0 Safari/537.36";
+    private static final String REFERRER = "http://www.google.com";
+    private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    public PageFetcher(InputList input) {
+        this.executor = Executors.newFixedThreadPool(input.getPipeline().getHttpThreads(), r -> {
+            Thread thread = new Thread(r, "page-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(TIMEOUT)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * @param known сохраненная ранее версия страницы или null; если есть, запрос отправляется условным
+     */
+    public CompletableFuture<PageResponse> fetch(String url, PageValidator known) {
+
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(TIMEOUT)
+                    .header("User-Agent", USER_AGENT)
+                    .header("Referer", REFERRER)
+                    .GET();
+            if (known != null && known.getEtag() != null) {
+                builder.header("If-None-Match", known.getEtag());
+            }
+            if (known != null && known.getLastModified() != null) {
+                builder.header("If-Modified-Since", known.getLastModified());
+            }
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(r -> new PageResponse(url, r.statusCode(),
+                        r.headers().firstValue("Content-Type").orElse(""),
+                        r.headers().firstValue("ETag").orElse(null),
+                        r.headers().firstValue("Last-Modified").orElse(null),
+                        r.body()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,151 +1,215 @@
 package searchengine.services;
 
 import lombok.extern.log4j.Log4j2;
-import org.jsoup.Connection;
-import org.jsoup.HttpStatusException;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
-import org.springframework.transaction.annotation.Transactional;
 import searchengine.model.Page;
+import searchengine.model.PageContent;
 import searchengine.model.Site;
-import searchengine.model.Status;
-import searchengine.repository.PageRepository;
-import searchengine.repository.SiteRepository;
+import searchengine.repository.PageValidator;
 
 import java.io.IOException;
+import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
-import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Обход одной страницы сайта. Задача завершается, когда завершены все порожденные ею задачи,
+ * поэтому ожидание очереди к хосту не держит поток пула.
+ */
 @Log4j2
-@Transactional
-public class PageFinder extends RecursiveTask<HashSet<Page>> {
+public class PageFinder extends CountedCompleter<Void> {
 
     private final String pageUrl;
-    private final Site initial;
-    private final SiteRepository siteRepository;
-    private final PageRepository pageRepository;
+    private final int depth;
+    private final CrawlContext context;
 
-    private static HashSet<String> hashSet = new HashSet<>();
+    public PageFinder(CountedCompleter<?> parent, String pageUrl, int depth, CrawlContext context) {
+        super(parent);
+        this.pageUrl = pageUrl;
+        this.depth = depth;
+        this.context = context;
+    }
+
+    @Override
+    public void compute() {
+
+        if (context.isStopped()) {
+            tryComplete();
+            return;
+        }
 
-    public static void setHashSet(HashSet<String> hashSet) {
-        PageFinder.hashSet = hashSet;
+        ForkJoinPool pool = getPool();
+        long queued = System.nanoTime();
+        context.getScheduler().submit(context, host(pageUrl), context.getCrawlIntervalNanos(), () -> {
+            context.getMetrics().politenessWait(context.getSite().getUrl(), System.nanoTime() - queued);
+            crawl(pool);
+        });
     }
 
-    public PageFinder(String pageUrl, Site initial, SiteRepository siteRepository, PageRepository pageRepository) {
-        this.initial = initial;
-        this.pageUrl = pageUrl;
-        this.siteRepository = siteRepository;
-        this.pageRepository = pageRepository;
+    private String path(String url) {
+        return url.substring(context.getSite().getUrl().length() - 1);
+    }
 
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
     }
 
-    @Override
-    protected HashSet<Page> compute() {
+    /**
+     * Запускает загрузку страницы. Ответ обрабатывается уже в пуле обхода.
+     */
+    private void crawl(ForkJoinPool pool) {
+        if (context.isStopped() || pool.isShutdown()) {
+            tryComplete();
+            return;
+        }
+        long start = System.nanoTime();
+        context.getFetcher().fetch(pageUrl, context.getKnownPages().get(path(pageUrl)))
+                .whenComplete((response, error) -> context.getMetrics().pageFetched(context.getSite().getUrl(),
+                        error != null ? "error" : String.valueOf(response.statusCode()), System.nanoTime() - start,
+                        error != null ? 0 : response.body().length))
+                .whenCompleteAsync(this::process, pool);
+    }
+
+    private void process(PageResponse response, Throwable error) {
 
         HashSet<String> pageList = new HashSet<>();
-        HashSet<Page> pageResult = new HashSet<>();
 
-        if (siteRepository.findById(initial.getId()).get().getStatus().equals(Status.FAILED)) {
+        try {
+            if (error != null) {
+                log.warn("PageFinder failed to fetch page: {}, {}", pageUrl, error.toString());
+                context.getProgress().fetchFailed(context.getSite());
+            } else if (!context.isStopped()) {
+                context.getProgress().pageFetched(context.getSite());
+                pageList.addAll(handle(response));
+            }
 
-            this.cancel(true);
+            if (!context.isStopped()) {
+                context.getFrontier().done(pageUrl);
+            }
 
-        } else {
-            try {
-                try {
-
-                    Thread.sleep(2500);
-                    Connection connection = Jsoup.connect(pageUrl)
-                            .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/111.0.0.0 Safari/537.36")
-                            .referrer("http://www.google.com")
-                            .followRedirects(false)
-                            .timeout(20000).get().connection();
-                    Long statusCode = (long) connection.response().statusCode();
-                    Document doc = connection.get();
-                    Page page = new Page(initial, pageUrl.substring(initial.getUrl().length() - 1), statusCode, doc.wholeText(), doc.title());
-                    pageRepository.save(page);
-                    Elements elements = doc.select("a");
-                    HashSet<String> pages = new HashSet<>();
-
-                    for (Element el : elements) {
-                        String currentPage = el.attr("abs:href");
-
-                        if (hashSet.contains(currentPage)) {
-                            continue;
-                        }
-
-                        if (hashSet.size() % 100 == 0) {
-                            initial.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
-                            siteRepository.save(initial);
-                        }
-
-                        log.info("PageFinder working with page: {}", currentPage);
-                        hashSet.add(currentPage);
-
-                        String suffix = (pageUrl.substring(pageUrl.indexOf(".")));
-                        if (suffix.contains("/")) {
-                            suffix = suffix.substring(0, suffix.indexOf("/") + 1);
-                        }
-
-                        String substring = pageUrl.substring(0, pageUrl.indexOf(suffix) + suffix.length());
-                        if ((currentPage.matches(substring + "[^.\\s#]+")
-                                || (currentPage.matches(substring + "[^\\s#]+") && currentPage.endsWith(".html")))
-                                && pageRepository.findAllByPath(currentPage.substring(initial.getUrl().length())).isEmpty()
-                                && currentPage.length() < 100) {
-
-                            pages.add(currentPage);
-                        }
-                    }
-
-                    pageList.addAll(pages);
-
-                } catch (HttpStatusException exception) {
-                    exception.printStackTrace();
-                    pageRepository.save(new Page(initial, exception.getUrl(), (long) exception.getStatusCode(), "NA", "NA"));
-
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+            if (!context.isStopped()) {
+                addToPendingCount(pageList.size());
+                for (String page : pageList) {
+                    new PageFinder(this, page, depth + 1, context).fork();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-                System.out.println(pageUrl);
             }
+        } catch (RuntimeException e) {
+            log.error("PageFinder failed on page: {}", pageUrl, e);
+        } finally {
+            tryComplete();
+        }
+    }
 
-            List<PageFinder> taskList = new ArrayList<>();
+    private HashSet<String> handle(PageResponse response) {
 
-            if (!siteRepository.findById(initial.getId()).get().getStatus().equals(Status.FAILED)) {
-                for (String page : pageList) {
+        Site initial = context.getSite();
+        HashSet<String> pages = new HashSet<>();
+        String path = path(pageUrl);
+        Long statusCode = (long) response.statusCode();
 
-                    PageFinder task = new PageFinder(page, initial, siteRepository, pageRepository);
-                    task.fork();
-                    taskList.add(task);
+        PageValidator known = context.getKnownPages().get(path);
+
+        if (response.isNotModified() && known != null) {
+            return pages;
+        }
+
+        try {
+            if (statusCode >= 400) {
+                store(known, path, statusCode, "NA", "NA", response);
+                return pages;
+            }
+            if (!response.isHtml()) {
+                return pages;
+            }
+
+            Document doc = response.parse();
+            store(known, path, statusCode, doc.wholeText(), doc.title(), response);
+            Elements elements = doc.select("a");
+
+            for (Element el : elements) {
+                String currentPage = el.attr("abs:href");
+
+                if (!context.getVisited().add(currentPage)) {
+                    continue;
+                }
+
+                if (context.getVisited().size() % 100 == 0) {
+                    initial.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
+                    context.getSiteRepository().save(initial);
                 }
 
-                for (PageFinder task : taskList) {
+                log.info("PageFinder working with page: {}", currentPage);
 
-                    pageResult.addAll(task.join());
+                String suffix = (pageUrl.substring(pageUrl.indexOf(".")));
+                if (suffix.contains("/")) {
+                    suffix = suffix.substring(0, suffix.indexOf("/") + 1);
                 }
 
-            } else {
+                String substring = pageUrl.substring(0, pageUrl.indexOf(suffix) + suffix.length());
+                if ((currentPage.matches(substring + "[^.\\s#]+")
+                        || (currentPage.matches(substring + "[^\\s#]+") && currentPage.endsWith(".html")))
+                        && currentPage.length() < 100) {
 
-                this.cancel(true);
+                    pages.add(currentPage);
+                    context.getFrontier().enqueued(currentPage, depth + 1);
+                }
             }
 
-            return pageResult;
+        } catch (IOException e) {
+            log.warn("PageFinder failed to parse page: {}, {}", pageUrl, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
 
-        return null;
+        return pages;
     }
-}
-
-
 
+    /**
+     * Сохраняет страницу и передает ее на индексацию. Страница, не изменившаяся с прошлого обхода,
+     * не переиндексируется, у нее обновляются только ETag и Last-Modified.
+     */
+    private void store(PageValidator known, String path, Long statusCode, String content, String title,
+                       PageResponse response) throws InterruptedException {
+
+        Long contentHash = VisitedUrls.fingerprint(content);
+        if (known != null && contentHash.equals(known.getContentHash()) && statusCode.equals(known.getCode())) {
+            context.getPageRepository().updateValidators(known.getId(), response.etag(), response.lastModified());
+            return;
+        }
 
+        Page page = new Page(context.getSite(), path, statusCode, title);
+        page.setEtag(response.etag());
+        page.setLastModified(response.lastModified());
+        page.setContentHash(contentHash);
+        if (known == null) {
+            context.getPageRepository().save(page);
+        } else {
+            // старые страница и текст не читаются: поля страницы обновляются запросом, текст записывается заново
+            page.setId(known.getId());
+            context.getPageRepository().updateFetched(page.getId(), statusCode, title, response.etag(),
+                    response.lastModified(), contentHash);
+            context.getPageContentRepository().deleteContent(page.getId());
+        }
 
+        PageContent pageContent = new PageContent(page, content);
+        context.getPageContentRepository().save(pageContent);
 
+        if (known != null && known.getCode() == 200L) {
+            context.getPipeline().acceptChanged(pageContent);
+        } else if (statusCode == 200L) {
+            context.getPipeline().accept(pageContent);
+        }
+    }
+}
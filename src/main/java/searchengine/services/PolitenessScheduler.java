@@ -0,0 +1,130 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничение частоты запросов к одному хосту. Вместо сна в рабочем потоке запрос встает
+ * в очередь хоста, и таймер запускает запросы очереди по одному, не чаще заданного интервала.
+ * Время обращения занимается только в момент запуска запроса, поэтому у хоста всегда не больше
+ * одного отложенного запуска в таймере, а очередь остановленного обхода снимается целиком.
+ */
+@Log4j2
+@Component
+public class PolitenessScheduler {
+
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "politeness-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class HostQueue {
+        private final Deque<Pending> waiting = new ArrayDeque<>();
+        private long nextSlot = System.nanoTime();
+        private ScheduledFuture<?> drain;
+    }
+
+    private record Pending(Object owner, long intervalNanos, Runnable task) {
+    }
+
+    /**
+     * Запускает задачу сразу, если хост свободен, иначе ставит ее в очередь хоста.
+     *
+     * @param owner обход, которому принадлежит задача; по нему очередь снимается в release
+     */
+    public void submit(Object owner, String host, long intervalNanos, Runnable task) {
+
+        HostQueue queue = hosts.computeIfAbsent(host, h -> new HostQueue());
+        synchronized (queue) {
+            long now = System.nanoTime();
+            if (queue.drain != null || !queue.waiting.isEmpty() || queue.nextSlot - now > 0) {
+                queue.waiting.add(new Pending(owner, intervalNanos, task));
+                if (queue.drain == null) {
+                    queue.drain = timer.schedule(() -> drain(queue), Math.max(queue.nextSlot - now, 0),
+                            TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+            queue.nextSlot = now + intervalNanos;
+        }
+        task.run();
+    }
+
+    /**
+     * Снимает задачи обхода, еще ждущие своей очереди, и забывает время обращения к хостам,
+     * в очередях которых больше ничего нет. Вызывается, когда обход сайта закончен или остановлен.
+     *
+     * @return число снятых задач
+     */
+    public int release(Object owner) {
+
+        int removed = 0;
+        for (Map.Entry<String, HostQueue> entry : hosts.entrySet()) {
+            HostQueue queue = entry.getValue();
+            synchronized (queue) {
+                int before = queue.waiting.size();
+                queue.waiting.removeIf(p -> p.owner() == owner);
+                removed += before - queue.waiting.size();
+                if (queue.waiting.isEmpty()) {
+                    if (queue.drain != null) {
+                        queue.drain.cancel(false);
+                        queue.drain = null;
+                    }
+                    hosts.remove(entry.getKey(), queue);
+                }
+            }
+        }
+        if (removed > 0) {
+            log.info("PolitenessScheduler in release removed {} waiting requests", removed);
+        }
+        return removed;
+    }
+
+    private void drain(HostQueue queue) {
+
+        Pending next;
+        synchronized (queue) {
+            long now = System.nanoTime();
+            if (queue.nextSlot - now > 0) {
+                queue.drain = timer.schedule(() -> drain(queue), queue.nextSlot - now, TimeUnit.NANOSECONDS);
+                return;
+            }
+            queue.drain = null;
+            next = queue.waiting.poll();
+            if (next == null) {
+                return;
+            }
+            queue.nextSlot = now + next.intervalNanos();
+            if (!queue.waiting.isEmpty()) {
+                queue.drain = timer.schedule(() -> drain(queue), queue.nextSlot - now, TimeUnit.NANOSECONDS);
+            }
+        }
+        try {
+            next.task().run();
+        } catch (RuntimeException e) {
+            log.error("PolitenessScheduler in drain task failed", e);
+        }
+    }
+
+    public static long intervalNanos(double requestsPerSecond, long crawlDelayMillis) {
+        long rateInterval = requestsPerSecond > 0 ? (long) (1_000_000_000L / requestsPerSecond) : 0;
+        return Math.max(rateInterval, TimeUnit.MILLISECONDS.toNanos(crawlDelayMillis));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
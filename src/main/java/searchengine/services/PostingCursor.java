@@ -0,0 +1,37 @@
+package searchengine.services;
+
+/**
+ * Последовательный проход по списку страниц леммы в порядке возрастания id страницы.
+ * До первого вызова next или advance курсор не стоит ни на какой странице.
+ */
+interface PostingCursor {
+
+    /**
+     * Переходит к следующей странице.
+     *
+     * @return false, если страниц больше нет
+     */
+    boolean next();
+
+    /**
+     * Переходит к первой странице с id не меньше pageId, не возвращаясь назад.
+     * Если курсор уже стоит на такой странице, он не сдвигается.
+     *
+     * @return false, если такой страницы нет
+     */
+    boolean advance(int pageId);
+
+    int pageId();
+
+    float rank();
+
+    /**
+     * Число страниц в списке или его оценка сверху.
+     */
+    long cost();
+
+    /**
+     * Верхняя граница ранга на любой странице списка.
+     */
+    float maxRank();
+}
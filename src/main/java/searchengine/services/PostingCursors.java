@@ -0,0 +1,220 @@
+package searchengine.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Курсоры по индексу из нескольких слоев: сегментов на диске, от старых к новым,
+ * и изменений в памяти поверх них. Страница из слоя учитывается, только если ни один
+ * более новый слой ее не покрывает.
+ */
+final class PostingCursors {
+
+    private PostingCursors() {
+    }
+
+    /**
+     * Список страниц леммы сайта по всем слоям.
+     *
+     * @param segments      сегменты от старых к новым
+     * @param memory        индекс сайта в памяти, самый новый слой, или null
+     * @param memoryDrops   сайт удален после записи последнего сегмента
+     * @return курсор или null, если леммы нет ни в одном слое
+     */
+    static PostingCursor layered(List<Segment> segments, SiteIndex memory, boolean memoryDrops,
+                                 long siteId, String lemma) {
+
+        List<PostingCursor> parts = new ArrayList<>();
+        List<IntPredicate> newer = new ArrayList<>();
+        if (memory != null) {
+            Postings postings = memory.postings(lemma);
+            if (postings != null) {
+                parts.add(postings.cursor());
+            }
+            if (memory.hasCoveredPages()) {
+                newer.add(memory::covers);
+            }
+        }
+
+        for (int i = segments.size() - 1; i >= 0 && !memoryDrops; i--) {
+            Segment segment = segments.get(i);
+            PostingCursor cursor = segment.cursor(siteId, lemma);
+            if (cursor != null) {
+                parts.add(newer.isEmpty() ? cursor : new Masked(cursor, newer.toArray(new IntPredicate[0])));
+            }
+            if (segment.drops(siteId)) {
+                break;
+            }
+            int[] covered = segment.coveredPages(siteId);
+            if (covered.length > 0) {
+                newer.add(pageId -> Arrays.binarySearch(covered, pageId) >= 0);
+            }
+        }
+
+        if (parts.isEmpty()) {
+            return null;
+        }
+        return parts.size() == 1 ? parts.get(0) : new Union(parts.toArray(new PostingCursor[0]));
+    }
+
+    /**
+     * id леммы в самом новом слое, где она есть.
+     */
+    static Long lemmaId(List<Segment> segments, SiteIndex memory, boolean memoryDrops, long siteId, String lemma) {
+
+        Long id = memory == null ? null : memory.lemmaId(lemma);
+        for (int i = segments.size() - 1; i >= 0 && id == null && !memoryDrops; i--) {
+            id = segments.get(i).lemmaId(siteId, lemma);
+            if (segments.get(i).drops(siteId)) {
+                break;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Пропускает страницы, покрытые более новыми слоями.
+     */
+    private static final class Masked implements PostingCursor {
+
+        private final PostingCursor cursor;
+        private final IntPredicate[] masks;
+
+        Masked(PostingCursor cursor, IntPredicate[] masks) {
+            this.cursor = cursor;
+            this.masks = masks;
+        }
+
+        @Override
+        public boolean next() {
+            while (cursor.next()) {
+                if (!masked(cursor.pageId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean advance(int pageId) {
+            if (!cursor.advance(pageId)) {
+                return false;
+            }
+            return !masked(cursor.pageId()) || next();
+        }
+
+        @Override
+        public int pageId() {
+            return cursor.pageId();
+        }
+
+        @Override
+        public float rank() {
+            return cursor.rank();
+        }
+
+        @Override
+        public long cost() {
+            return cursor.cost();
+        }
+
+        @Override
+        public float maxRank() {
+            return cursor.maxRank();
+        }
+
+        private boolean masked(int pageId) {
+            for (IntPredicate mask : masks) {
+                if (mask.test(pageId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Объединение списков разных слоев. Маски не дают одной странице попасть в два слоя,
+     * поэтому из одинаковых страниц берется первая, остальные пропускаются.
+     */
+    private static final class Union implements PostingCursor {
+
+        private static final int EXHAUSTED = -1;
+        private static final int NOT_STARTED = 0;
+        private static final int POSITIONED = 1;
+
+        private final PostingCursor[] cursors;
+        private final int[] states;
+        private int current = -1;
+
+        Union(PostingCursor[] cursors) {
+            this.cursors = cursors;
+            this.states = new int[cursors.length];
+        }
+
+        @Override
+        public boolean next() {
+            int previous = current < 0 ? Integer.MIN_VALUE : cursors[current].pageId();
+            for (int i = 0; i < cursors.length; i++) {
+                if (states[i] == NOT_STARTED || states[i] == POSITIONED && cursors[i].pageId() <= previous) {
+                    boolean found = states[i] == NOT_STARTED ? cursors[i].next() : cursors[i].advance(previous + 1);
+                    states[i] = found ? POSITIONED : EXHAUSTED;
+                }
+            }
+            return pickMin();
+        }
+
+        @Override
+        public boolean advance(int pageId) {
+            if (current >= 0 && cursors[current].pageId() >= pageId) {
+                return true;
+            }
+            for (int i = 0; i < cursors.length; i++) {
+                if (states[i] == NOT_STARTED || states[i] == POSITIONED && cursors[i].pageId() < pageId) {
+                    states[i] = cursors[i].advance(pageId) ? POSITIONED : EXHAUSTED;
+                }
+            }
+            return pickMin();
+        }
+
+        @Override
+        public int pageId() {
+            return cursors[current].pageId();
+        }
+
+        @Override
+        public float rank() {
+            return cursors[current].rank();
+        }
+
+        @Override
+        public long cost() {
+            long cost = 0;
+            for (PostingCursor cursor : cursors) {
+                cost += cursor.cost();
+            }
+            return cost;
+        }
+
+        @Override
+        public float maxRank() {
+            float maxRank = 0F;
+            for (PostingCursor cursor : cursors) {
+                maxRank = Math.max(maxRank, cursor.maxRank());
+            }
+            return maxRank;
+        }
+
+        private boolean pickMin() {
+            current = -1;
+            for (int i = 0; i < cursors.length; i++) {
+                if (states[i] == POSITIONED && (current < 0 || cursors[i].pageId() < cursors[current].pageId())) {
+                    current = i;
+                }
+            }
+            return current >= 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package searchengine.services;
+
+import java.util.Arrays;
+
+/**
+ * Список страниц леммы, отсортированный по id страницы. Опубликованный в снимке индекса
+ * список не изменяется, изменения вносятся в копию.
+ * Хранит наибольший ранг леммы - верхнюю границу ее вклада в релевантность любой страницы.
+ */
+class Postings {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] pages;
+    private float[] ranks;
+    private int size;
+    private float maxRank;
+    private boolean maxRankStale;
+
+    Postings() {
+        this.pages = new int[INITIAL_CAPACITY];
+        this.ranks = new float[INITIAL_CAPACITY];
+    }
+
+    private Postings(int[] pages, float[] ranks, int size, float maxRank) {
+        this.pages = pages;
+        this.ranks = ranks;
+        this.size = size;
+        this.maxRank = maxRank;
+    }
+
+    Postings copy() {
+        int capacity = Math.max(INITIAL_CAPACITY, size + size / 4);
+        return new Postings(Arrays.copyOf(pages, capacity), Arrays.copyOf(ranks, capacity), size, maxRank);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int pageAt(int i) {
+        return pages[i];
+    }
+
+    float rankAt(int i) {
+        return ranks[i];
+    }
+
+    float maxRank() {
+        return maxRank;
+    }
+
+    int indexOf(int pageId) {
+        return Arrays.binarySearch(pages, 0, size, pageId);
+    }
+
+    /**
+     * Позиция первой страницы с id не меньше pageId, начиная с позиции from, или size(), если такой нет.
+     * Ищет галопом: шаг удваивается, пока не перескочит искомую страницу, затем двоичный поиск
+     * в последнем шаге. Для близких страниц это быстрее двоичного поиска по всему списку.
+     */
+    int advance(int from, int pageId) {
+
+        if (from >= size || pages[from] >= pageId) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        while (low + step < size && pages[low + step] < pageId) {
+            low += step;
+            step <<= 1;
+        }
+        int i = Arrays.binarySearch(pages, low + 1, Math.min(low + step + 1, size), pageId);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    PostingCursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Пересчитывает наибольший ранг, если он мог уменьшиться. Вызывается перед публикацией списка.
+     */
+    void seal() {
+        if (maxRankStale) {
+            maxRank = 0F;
+            for (int i = 0; i < size; i++) {
+                maxRank = Math.max(maxRank, ranks[i]);
+            }
+            maxRankStale = false;
+        }
+    }
+
+    void put(int pageId, float rank) {
+
+        int i = indexOf(pageId);
+        if (i >= 0) {
+            maxRankStale |= ranks[i] == maxRank && rank < maxRank;
+            maxRank = Math.max(maxRank, rank);
+            ranks[i] = rank;
+            return;
+        }
+
+        i = -i - 1;
+        if (size == pages.length) {
+            pages = Arrays.copyOf(pages, size * 2);
+            ranks = Arrays.copyOf(ranks, size * 2);
+        }
+        System.arraycopy(pages, i, pages, i + 1, size - i);
+        System.arraycopy(ranks, i, ranks, i + 1, size - i);
+        pages[i] = pageId;
+        ranks[i] = rank;
+        maxRank = Math.max(maxRank, rank);
+        size++;
+    }
+
+    boolean remove(int pageId) {
+
+        int i = indexOf(pageId);
+        if (i < 0) {
+            return false;
+        }
+        maxRankStale |= ranks[i] == maxRank;
+        System.arraycopy(pages, i + 1, pages, i, size - i - 1);
+        System.arraycopy(ranks, i + 1, ranks, i, size - i - 1);
+        size--;
+        return true;
+    }
+
+    private class Cursor implements PostingCursor {
+
+        private int position = -1;
+
+        @Override
+        public boolean next() {
+            return ++position < size;
+        }
+
+        @Override
+        public boolean advance(int pageId) {
+            if (position >= 0 && position < size && pages[position] >= pageId) {
+                return true;
+            }
+            position = Postings.this.advance(Math.max(position, 0), pageId);
+            return position < size;
+        }
+
+        @Override
+        public int pageId() {
+            return pages[position];
+        }
+
+        @Override
+        public float rank() {
+            return ranks[position];
+        }
+
+        @Override
+        public long cost() {
+            return size;
+        }
+
+        @Override
+        public float maxRank() {
+            return maxRank;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import searchengine.config.InputList;
+import searchengine.dto.statistics.SearchCacheStatistics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш результатов поиска: для набора лемм запроса и сайта хранит лучшие страницы
+ * с релевантностью, собранные с начала выдачи на некоторую глубину. Все страницы выдачи
+ * в пределах этой глубины, по смещению или по курсору, нарезаются из одной записи.
+ * Записи вытесняются по давности использования и по времени жизни. Запись, сделанная
+ * при другом номере снимка индекса, считается устаревшей.
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchCache {
+
+    private final InputList input;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    record Key(List<String> lemmas, String site) {
+    }
+
+    private record Entry(long generation, long createdNanos, SearchHits hits) {
+    }
+
+    static Key key(Collection<String> lemmas, String site) {
+        List<String> sorted = new ArrayList<>(lemmas);
+        Collections.sort(sorted);
+        return new Key(List.copyOf(sorted), site);
+    }
+
+    /**
+     * @return сохраненный результат или null, если его нет или он устарел
+     */
+    public synchronized SearchHits get(Key key, long generation) {
+
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.generation() != generation || expired(entry))) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.hits();
+    }
+
+    /**
+     * Сохраняет результат, заменяя прежний результат того же запроса, собранный на меньшую глубину.
+     */
+    public synchronized void put(Key key, long generation, SearchHits hits) {
+
+        entries.put(key, new Entry(generation, System.nanoTime(), hits));
+        while (entries.size() > input.getSearchCache().getMaxEntries()) {
+            entries.remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    public synchronized SearchCacheStatistics statistics() {
+        long requests = hits + misses;
+        return new SearchCacheStatistics(hits, misses, requests == 0 ? 0D : (double) hits / requests,
+                evictions, entries.size());
+    }
+
+    private boolean expired(Entry entry) {
+        return System.nanoTime() - entry.createdNanos() > TimeUnit.SECONDS.toNanos(input.getSearchCache().getTtlSeconds());
+    }
+}
@@ -0,0 +1,124 @@
+package searchengine.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Метрики обхода, индексации и поиска. Публикуются через Actuator, в том числе в формате
+ * Prometheus на /actuator/prometheus. Скорости (страниц и строк в секунду) считаются по счетчикам
+ * функцией rate(), перцентили - по гистограммам таймеров, которые включены в application.yaml.
+ */
+@Component
+@RequiredArgsConstructor
+public class SearchEngineMetrics {
+
+    private static final String FETCH = "searchengine.crawl.fetch";
+    private static final String BYTES = "searchengine.crawl.bytes";
+    private static final String POLITENESS_WAIT = "searchengine.crawl.politeness.wait";
+    private static final String FRONTIER_SIZE = "searchengine.crawl.frontier.size";
+    private static final String LEMMATIZE = "searchengine.index.lemmatize";
+    private static final String WRITE = "searchengine.index.write";
+    private static final String ROWS = "searchengine.index.rows";
+    private static final String SEARCH_PHASE = "searchengine.search.phase";
+
+    /**
+     * Этапы поиска: разбор запроса, выбор лучших страниц, построение сниппетов и загрузка страниц из базы.
+     */
+    public enum SearchPhase {
+        LOOKUP, RANK, SNIPPET, HYDRATE;
+
+        private final String tag = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final MeterRegistry registry;
+
+    /**
+     * Загрузка страницы. Страницы, не загруженные из-за ошибки, учитываются со статусом error.
+     */
+    public void pageFetched(String site, String status, long nanos, long bytes) {
+        Timer.builder(FETCH)
+                .description("Время загрузки страницы")
+                .tags("site", site, "status", status)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (bytes > 0) {
+            Counter.builder(BYTES)
+                    .description("Загружено байт")
+                    .baseUnit("bytes")
+                    .tags("site", site)
+                    .register(registry)
+                    .increment(bytes);
+        }
+    }
+
+    public void politenessWait(String site, long nanos) {
+        Timer.builder(POLITENESS_WAIT)
+                .description("Ожидание очереди к хосту перед загрузкой")
+                .tags("site", site)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Размер очереди обхода сайта. Метрику нужно удалить через remove, когда обход закончен.
+     */
+    public <T> Meter frontierSize(String site, T frontier, ToDoubleFunction<T> size) {
+        return Gauge.builder(FRONTIER_SIZE, frontier, size)
+                .description("Адреса, поставленные в очередь обхода и еще не обработанные")
+                .tags("site", site)
+                .register(registry);
+    }
+
+    public void remove(Meter meter) {
+        registry.remove(meter);
+    }
+
+    public void pageLemmatized(String site, long nanos) {
+        Timer.builder(LEMMATIZE)
+                .description("Лемматизация страницы и разбор ее на предложения")
+                .tags("site", site)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Запись партии страниц в базу.
+     *
+     * @param lemmaRows сохраненные леммы
+     * @param indexRows сохраненные и удаленные индексы
+     */
+    public void batchWritten(String site, long nanos, int lemmaRows, int indexRows) {
+        Timer.builder(WRITE)
+                .description("Запись партии страниц в базу")
+                .tags("site", site)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        rows(site, "lemma", lemmaRows);
+        rows(site, "index", indexRows);
+    }
+
+    public void searchPhase(SearchPhase phase, long nanos) {
+        Timer.builder(SEARCH_PHASE)
+                .description("Время этапа поиска")
+                .tags("phase", phase.tag)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void rows(String site, String table, int count) {
+        Counter.builder(ROWS)
+                .description("Строки, записанные в базу при индексации")
+                .tags("site", site, "table", table)
+                .register(registry)
+                .increment(count);
+    }
+}
@@ -0,0 +1,317 @@
+package searchengine.services;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Лучшие страницы запроса с их релевантностью, собранные для одной страницы результатов.
+ * <p>
+ * Порядок результатов - по убыванию релевантности, при равной релевантности - по возрастанию id.
+ * Релевантность положительна, поэтому биты float сравниваются как целые числа, и пара
+ * (релевантность, id) упаковывается в один long, возрастание которого обратно порядку результатов.
+ * Этот же long служит курсором: следующая страница - результаты с ключом меньше курсора.
+ */
+class SearchHits {
+
+    private final long[] keys;
+    private final long total;
+    private final boolean exactTotal;
+    private final boolean more;
+    private final float maxScore;
+    private final boolean complete;
+
+    private SearchHits(long[] keys, long total, boolean exactTotal, boolean more, float maxScore, boolean complete) {
+        this.keys = keys;
+        this.total = total;
+        this.exactTotal = exactTotal;
+        this.more = more;
+        this.maxScore = maxScore;
+        this.complete = complete;
+    }
+
+    static SearchHits empty() {
+        return new SearchHits(new long[0], 0, true, false, 0F, true);
+    }
+
+    /**
+     * Те же страницы, отмеченные как неполный результат.
+     */
+    SearchHits incomplete() {
+        return new SearchHits(keys, total, false, more, maxScore, false);
+    }
+
+    /**
+     * Объединяет лучшие страницы, собранные по отдельным сайтам, в depth лучших по всем сайтам.
+     */
+    static SearchHits merge(List<SearchHits> parts, int depth) {
+
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+
+        long[] all = new long[parts.stream().mapToInt(h -> h.keys.length).sum()];
+        int size = 0;
+        long total = 0;
+        boolean exactTotal = true;
+        boolean more = false;
+        boolean complete = true;
+        float maxScore = 0F;
+        for (SearchHits part : parts) {
+            System.arraycopy(part.keys, 0, all, size, part.keys.length);
+            size += part.keys.length;
+            total += part.total;
+            exactTotal &= part.exactTotal;
+            more |= part.more;
+            complete &= part.complete;
+            maxScore = Math.max(maxScore, part.maxScore);
+        }
+
+        Arrays.sort(all);
+        int count = Math.min(depth, all.length);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = all[all.length - 1 - i];
+        }
+        return new SearchHits(keys, total, exactTotal, more || all.length > count, maxScore, complete);
+    }
+
+    /**
+     * Страница результатов.
+     *
+     * @param nextCursor курсор следующей страницы или null, если это последняя страница
+     */
+    record ResultPage(int[] pageIds, float[] scores, String nextCursor) {
+    }
+
+    /**
+     * Число найденных страниц. Если часть страниц отброшена без проверки, число оценивается
+     * по доле совпадений среди проверенных страниц.
+     */
+    long total() {
+        return total;
+    }
+
+    boolean isExactTotal() {
+        return exactTotal;
+    }
+
+    /**
+     * false, если поиск хотя бы по одному сайту не уложился в срок и его страницы учтены не все.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Наибольшая релевантность среди всех найденных страниц, в том числе выше курсора.
+     */
+    float maxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Позиция первого результата с ключом меньше курсора или -1, если курсор глубже собранных результатов.
+     */
+    int positionAfter(long cursor) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < cursor) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low == keys.length && more ? -1 : low;
+    }
+
+    /**
+     * true, если собранных результатов хватает на страницу from..from + limit или других результатов нет.
+     */
+    boolean covers(long from, int limit) {
+        return from + limit <= keys.length || !more;
+    }
+
+    int depth() {
+        return keys.length;
+    }
+
+    /**
+     * @param skip сколько лучших страниц пропустить, не больше глубины, с которой собраны результаты
+     */
+    ResultPage page(long skip, int limit) {
+
+        int from = (int) Math.min(skip, keys.length);
+        int count = Math.max(0, Math.min(limit, keys.length - from));
+        int[] pageIds = new int[count];
+        float[] scores = new float[count];
+        for (int i = 0; i < count; i++) {
+            long key = keys[from + i];
+            pageIds[i] = ~(int) key;
+            scores[i] = Float.intBitsToFloat((int) (key >>> 32));
+        }
+
+        boolean last = from + count == keys.length && !more;
+        String nextCursor = count == 0 || last ? null : cursor(keys[from + count - 1]);
+        return new ResultPage(pageIds, scores, nextCursor);
+    }
+
+    /**
+     * @throws NumberFormatException если курсор поврежден
+     */
+    static long parseCursor(String cursor) {
+        return cursor == null ? Long.MAX_VALUE : Long.parseLong(cursor, Character.MAX_RADIX);
+    }
+
+    private static String cursor(long key) {
+        return Long.toString(key, Character.MAX_RADIX);
+    }
+
+    private static long key(float score, int pageId) {
+        return ((long) Float.floatToIntBits(score) << 32) | (~pageId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Собирает depth лучших страниц с ключом меньше курсора в ограниченную кучу.
+     * Релевантность самой слабой страницы в заполненной куче - порог: страница, которая
+     * заведомо не наберет больше, в результаты не попадет, и ее можно не досчитывать.
+     * Поиск прекращается, когда истекает срок запроса.
+     */
+    static class Collector {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int depth;
+        private final long after;
+        private final long deadlineNanos;
+        private long[] heap;
+        private int heapSize;
+        private long matched;
+        private long belowCursor;
+        private long rejected;
+        private long pruned;
+        private float maxScore;
+        private boolean expired;
+
+        /**
+         * Куча растет по мере добавления страниц, поэтому большая глубина не требует памяти,
+         * пока страниц найдено мало.
+         *
+         * @param deadlineNanos момент по System.nanoTime(), после которого поиск прекращается
+         */
+        Collector(int depth, long after, long deadlineNanos) {
+            this.depth = Math.max(depth, 0);
+            this.after = after;
+            this.deadlineNanos = deadlineNanos;
+            this.heap = new long[Math.min(this.depth, INITIAL_CAPACITY)];
+        }
+
+        /**
+         * Проверяет срок запроса. После истечения срока собранные страницы считаются неполными.
+         */
+        boolean expired() {
+            expired |= System.nanoTime() - deadlineNanos > 0;
+            return expired;
+        }
+
+        /**
+         * Наименьшая релевантность, с которой страница еще может попасть в результаты.
+         */
+        float threshold() {
+            return depth > 0 && heapSize == depth ? Float.intBitsToFloat((int) (heap[0] >>> 32)) : 0F;
+        }
+
+        boolean isFull() {
+            return heapSize == depth;
+        }
+
+        void add(int pageId, float score) {
+
+            matched++;
+            maxScore = Math.max(maxScore, score);
+            long key = key(score, pageId);
+            if (key >= after) {
+                return;
+            }
+            belowCursor++;
+            if (heapSize < depth) {
+                if (heapSize == heap.length) {
+                    heap = Arrays.copyOf(heap, (int) Math.min(depth, heap.length * 2L));
+                }
+                heap[heapSize] = key;
+                siftUp(heap, heapSize++);
+            } else if (depth > 0 && key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        /**
+         * Страница не содержит всех лемм запроса.
+         */
+        void reject() {
+            rejected++;
+        }
+
+        /**
+         * Страница отброшена по верхней границе релевантности, не проверена до конца.
+         */
+        void prune() {
+            pruned++;
+        }
+
+        long pruned() {
+            return pruned;
+        }
+
+        SearchHits build() {
+
+            long[] keys = Arrays.copyOf(heap, heapSize);
+            Arrays.sort(keys);
+            for (int i = 0, j = keys.length - 1; i < j; i++, j--) {
+                long key = keys[i];
+                keys[i] = keys[j];
+                keys[j] = key;
+            }
+
+            boolean exact = pruned == 0 && !expired;
+            long total = matched;
+            if (!exact && matched > 0) {
+                total += Math.round((double) pruned * matched / (matched + rejected));
+            }
+            boolean more = belowCursor > heapSize || pruned > 0 || expired;
+            total = Math.max(total, keys.length + (more ? 1 : 0));
+            return new SearchHits(keys, total, exact, more, maxScore, !expired);
+        }
+
+        private static void siftUp(long[] heap, int i) {
+            long key = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+
+        private static void siftDown(long[] heap, int size) {
+            long key = heap[0];
+            int i = 0;
+            for (int child = 1; child < size; child = 2 * i + 1) {
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[child] >= key) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+        }
+    }
+}
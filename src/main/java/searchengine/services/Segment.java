@@ -0,0 +1,414 @@
+package searchengine.services;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Неизменяемый сегмент индекса в файле, отображенном в память. Кэшированием страниц файла
+ * занимается операционная система, в куче хранится только словарь лемм.
+ * <p>
+ * Списки страниц разбиты на блоки по BLOCK_SIZE страниц: id страниц записаны разностями
+ * в формате varint, ранги - одним байтом в логарифмической шкале. Для каждого блока в таблице
+ * пропусков хранятся его последний id страницы и смещение, поэтому курсор переходит к нужному
+ * блоку двоичным поиском и распаковывает только его.
+ * <p>
+ * Сегмент перекрывает более старые: страницы, которые он покрывает, и сайты, которые он удаляет,
+ * в старых сегментах не учитываются.
+ */
+final class Segment {
+
+    static final int BLOCK_SIZE = 128;
+    private static final int MAGIC = 0x53454731;
+    private static final int VERSION = 1;
+    private static final int RANK_STEPS_PER_OCTAVE = 16;
+    private static final float[] RANKS = new float[256];
+
+    static {
+        for (int q = 0; q < RANKS.length; q++) {
+            RANKS[q] = (float) Math.pow(2, (double) q / RANK_STEPS_PER_OCTAVE);
+        }
+    }
+
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private final Set<Long> droppedSites;
+    private final Map<Long, int[]> coveredPages;
+    private final Map<Long, Map<String, Entry>> lemmas;
+    private final long postingCount;
+
+    /**
+     * Список страниц леммы для записи в сегмент.
+     */
+    record LemmaPostings(long siteId, String lemma, long lemmaId, PostingCursor cursor) {
+    }
+
+    private record Entry(long lemmaId, int size, float maxRank, int blockCount, int dataOffset, int skipOffset) {
+    }
+
+    private record DictionaryEntry(long siteId, byte[] lemma, Entry entry) {
+    }
+
+    private Segment(Path file, MappedByteBuffer buffer, Set<Long> droppedSites, Map<Long, int[]> coveredPages,
+                    Map<Long, Map<String, Entry>> lemmas, long postingCount) {
+        this.file = file;
+        this.buffer = buffer;
+        this.droppedSites = droppedSites;
+        this.coveredPages = coveredPages;
+        this.lemmas = lemmas;
+        this.postingCount = postingCount;
+    }
+
+    static Segment open(Path file) throws IOException {
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Segment " + file + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Segment " + file + " has unknown format");
+        }
+
+        Set<Long> droppedSites = new HashSet<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            droppedSites.add(in.getLong());
+        }
+
+        Map<Long, int[]> coveredPages = new HashMap<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            long siteId = in.getLong();
+            int[] pages = new int[in.getInt()];
+            for (int j = 0; j < pages.length; j++) {
+                pages[j] = in.getInt();
+            }
+            coveredPages.put(siteId, pages);
+        }
+
+        Map<Long, Map<String, Entry>> lemmas = new HashMap<>();
+        int lemmaCount = in.getInt();
+        long postingCount = in.getLong();
+        int dataStart = in.getInt();
+        for (int i = 0; i < lemmaCount; i++) {
+            long siteId = in.getLong();
+            long lemmaId = in.getLong();
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            Entry entry = new Entry(lemmaId, in.getInt(), in.getFloat(), in.getInt(),
+                    dataStart + in.getInt(), dataStart + in.getInt());
+            lemmas.computeIfAbsent(siteId, id -> new HashMap<>()).put(new String(name, StandardCharsets.UTF_8), entry);
+        }
+
+        return new Segment(file, buffer, droppedSites, coveredPages, lemmas, postingCount);
+    }
+
+    /**
+     * Записывает сегмент: сначала списки страниц во временный файл, затем заголовок со словарем,
+     * к которому дописываются списки. Готовый файл появляется под своим именем атомарно.
+     */
+    static void write(Path file, Iterator<LemmaPostings> postings, Set<Long> droppedSites,
+                      Map<Long, int[]> coveredPages) throws IOException {
+
+        Path data = file.resolveSibling(file.getFileName() + ".data");
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        List<DictionaryEntry> dictionary = new ArrayList<>();
+        long postingCount = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(data), 1 << 16))) {
+            while (postings.hasNext()) {
+                LemmaPostings lemma = postings.next();
+                Entry entry = writePostings(lemma.cursor(), lemma.lemmaId(), out);
+                if (entry != null) {
+                    dictionary.add(new DictionaryEntry(lemma.siteId(), lemma.lemma().getBytes(StandardCharsets.UTF_8), entry));
+                    postingCount += entry.size();
+                }
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Segment " + file + " would be larger than 2 GB");
+                }
+            }
+        }
+
+        try (OutputStream stream = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(droppedSites.size());
+            for (long siteId : droppedSites) {
+                out.writeLong(siteId);
+            }
+            out.writeInt(coveredPages.size());
+            for (Map.Entry<Long, int[]> covered : coveredPages.entrySet()) {
+                out.writeLong(covered.getKey());
+                out.writeInt(covered.getValue().length);
+                for (int pageId : covered.getValue()) {
+                    out.writeInt(pageId);
+                }
+            }
+
+            int dictionarySize = 0;
+            for (DictionaryEntry lemma : dictionary) {
+                dictionarySize += 8 + 8 + 2 + lemma.lemma().length + 4 + 4 + 4 + 4 + 4;
+            }
+            long dataStart = out.size() + 4L + 8 + 4 + dictionarySize;
+            if (dataStart + Files.size(data) > Integer.MAX_VALUE) {
+                throw new IOException("Segment " + file + " would be larger than 2 GB");
+            }
+
+            out.writeInt(dictionary.size());
+            out.writeLong(postingCount);
+            out.writeInt((int) dataStart);
+            for (DictionaryEntry lemma : dictionary) {
+                Entry entry = lemma.entry();
+                out.writeLong(lemma.siteId());
+                out.writeLong(entry.lemmaId());
+                out.writeShort(lemma.lemma().length);
+                out.write(lemma.lemma());
+                out.writeInt(entry.size());
+                out.writeFloat(entry.maxRank());
+                out.writeInt(entry.blockCount());
+                out.writeInt(entry.dataOffset());
+                out.writeInt(entry.skipOffset());
+            }
+            out.flush();
+            Files.copy(data, stream);
+        } finally {
+            Files.deleteIfExists(data);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Блоки списка, за ними таблица пропусков. Позиция в файле данных - out.size(),
+     * который не переполняется, пока сегмент меньше 2 ГБ.
+     *
+     * @return запись словаря со смещениями от начала данных или null, если список пуст
+     */
+    private static Entry writePostings(PostingCursor cursor, long lemmaId, DataOutputStream out) throws IOException {
+
+        int start = out.size();
+        List<int[]> skips = new ArrayList<>();
+        int[] pages = new int[BLOCK_SIZE];
+        byte[] ranks = new byte[BLOCK_SIZE];
+        int blockSize = 0;
+        int previous = 0;
+        int size = 0;
+        float maxRank = 0F;
+
+        while (cursor.next()) {
+            pages[blockSize] = cursor.pageId();
+            ranks[blockSize] = quantize(cursor.rank());
+            maxRank = Math.max(maxRank, RANKS[ranks[blockSize] & 0xFF]);
+            blockSize++;
+            size++;
+            if (blockSize == BLOCK_SIZE) {
+                skips.add(new int[]{pages[blockSize - 1], out.size() - start});
+                previous = writeBlock(out, pages, ranks, blockSize, previous);
+                blockSize = 0;
+            }
+        }
+        if (blockSize > 0) {
+            skips.add(new int[]{pages[blockSize - 1], out.size() - start});
+            writeBlock(out, pages, ranks, blockSize, previous);
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        int skipStart = out.size();
+        for (int[] skip : skips) {
+            out.writeInt(skip[0]);
+            out.writeInt(skip[1]);
+        }
+        return new Entry(lemmaId, size, maxRank, skips.size(), start, skipStart);
+    }
+
+    private static int writeBlock(DataOutputStream out, int[] pages, byte[] ranks, int blockSize, int previous)
+            throws IOException {
+        for (int i = 0; i < blockSize; i++) {
+            writeVarint(out, pages[i] - previous);
+            previous = pages[i];
+        }
+        out.write(ranks, 0, blockSize);
+        return previous;
+    }
+
+    static byte quantize(float rank) {
+        if (rank <= 1F) {
+            return 0;
+        }
+        long q = Math.round(Math.log(rank) / Math.log(2) * RANK_STEPS_PER_OCTAVE);
+        return (byte) Math.min(q, RANKS.length - 1);
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long postingCount() {
+        return postingCount;
+    }
+
+    Set<Long> sites() {
+        return lemmas.keySet();
+    }
+
+    Set<String> lemmas(long siteId) {
+        return lemmas.getOrDefault(siteId, Map.of()).keySet();
+    }
+
+    Long lemmaId(long siteId, String lemma) {
+        Entry entry = lemmas.getOrDefault(siteId, Map.of()).get(lemma);
+        return entry == null ? null : entry.lemmaId();
+    }
+
+    PostingCursor cursor(long siteId, String lemma) {
+        Entry entry = lemmas.getOrDefault(siteId, Map.of()).get(lemma);
+        return entry == null ? null : new Cursor(entry);
+    }
+
+    /**
+     * Сегмент удаляет все страницы сайта из более старых сегментов.
+     */
+    boolean drops(long siteId) {
+        return droppedSites.contains(siteId);
+    }
+
+    /**
+     * Отсортированные id страниц сайта, списки которых в более старых сегментах устарели.
+     */
+    int[] coveredPages(long siteId) {
+        return coveredPages.getOrDefault(siteId, new int[0]);
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Курсор читает буфер только по абсолютным позициям, поэтому один буфер делят все потоки поиска.
+     */
+    private final class Cursor implements PostingCursor {
+
+        private final Entry entry;
+        private final int[] pages = new int[BLOCK_SIZE];
+        private final float[] ranks = new float[BLOCK_SIZE];
+        private int block = -1;
+        private int blockSize;
+        private int position;
+
+        Cursor(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean next() {
+            if (block >= 0 && position + 1 < blockSize) {
+                position++;
+                return true;
+            }
+            return load(block + 1);
+        }
+
+        @Override
+        public boolean advance(int pageId) {
+
+            if (block >= entry.blockCount()) {
+                return false;
+            }
+            if (block >= 0 && pages[position] >= pageId) {
+                return true;
+            }
+            if (block < 0 || lastPage(block) < pageId) {
+                int low = block + 1;
+                int high = entry.blockCount();
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (lastPage(middle) < pageId) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                if (!load(low)) {
+                    return false;
+                }
+            }
+            int i = Arrays.binarySearch(pages, position, blockSize, pageId);
+            position = i >= 0 ? i : -i - 1;
+            return true;
+        }
+
+        @Override
+        public int pageId() {
+            return pages[position];
+        }
+
+        @Override
+        public float rank() {
+            return ranks[position];
+        }
+
+        @Override
+        public long cost() {
+            return entry.size();
+        }
+
+        @Override
+        public float maxRank() {
+            return entry.maxRank();
+        }
+
+        private int lastPage(int b) {
+            return buffer.getInt(entry.skipOffset() + b * 8);
+        }
+
+        private boolean load(int b) {
+
+            block = b;
+            position = 0;
+            if (b >= entry.blockCount()) {
+                blockSize = 0;
+                return false;
+            }
+
+            blockSize = Math.min(BLOCK_SIZE, entry.size() - b * BLOCK_SIZE);
+            int offset = entry.dataOffset() + buffer.getInt(entry.skipOffset() + b * 8 + 4);
+            int previous = b == 0 ? 0 : lastPage(b - 1);
+            for (int i = 0; i < blockSize; i++) {
+                int value = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte next = buffer.get(offset++);
+                    value |= (next & 0x7F) << shift;
+                    if (next >= 0) {
+                        break;
+                    }
+                }
+                previous += value;
+                pages[i] = previous;
+            }
+            for (int i = 0; i < blockSize; i++) {
+                ranks[i] = RANKS[buffer.get(offset++) & 0xFF];
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import searchengine.config.IndexStoreSettings;
+import searchengine.config.InputList;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Каталог сегментов индекса на диске. Список действующих сегментов хранится в манифесте,
+ * который заменяется атомарно, поэтому после сбоя видна либо старая, либо новая версия индекса.
+ * <p>
+ * Изменения индекса в памяти, еще не записанные в сегмент, отмечаются файлом-признаком.
+ * Если при запуске признак найден, изменения потеряны, и индекс строится из базы заново.
+ * <p>
+ * Сегменты - производная копия таблицы index: индексы по-прежнему записываются в базу, и по ним
+ * сегменты восстанавливаются. Сегменты снимают с базы чтение индекса при запуске и держат
+ * списки страниц вне кучи, но не уменьшают таблицу index.
+ */
+@Log4j2
+@Component
+public class SegmentIndexStore {
+
+    static final String SEGMENTS = "segments";
+    private static final String MANIFEST = "segments.manifest";
+    private static final String DIRTY = "segments.dirty";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.seg");
+
+    private final IndexStoreSettings settings;
+    private final ExecutorService merger;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean dirty;
+
+    public SegmentIndexStore(InputList input) {
+        this.settings = input.getIndexStore();
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-merger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public boolean isEnabled() {
+        return SEGMENTS.equalsIgnoreCase(settings.getType());
+    }
+
+    long flushPostings() {
+        return settings.getFlushPostings();
+    }
+
+    int maxSegments() {
+        return Math.max(settings.getMaxSegments(), 1);
+    }
+
+    /**
+     * Открывает сегменты из манифеста, от старых к новым. Файлы, которых нет в манифесте, удаляются.
+     * Если индекс в памяти не был записан или сегмент не читается, все сегменты удаляются
+     * и возвращается пустой список.
+     */
+    List<Segment> open() {
+
+        Path directory = Path.of(settings.getDirectory());
+        List<Segment> segments = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            sequence.set(lastSequence(directory));
+            boolean clean = !Files.exists(directory.resolve(DIRTY)) && Files.exists(directory.resolve(MANIFEST));
+            Set<Path> listed = new HashSet<>();
+            if (clean) {
+                for (String name : Files.readAllLines(directory.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                    if (!name.isBlank()) {
+                        Path file = directory.resolve(name.trim());
+                        segments.add(Segment.open(file));
+                        listed.add(file);
+                    }
+                }
+            } else {
+                log.warn("SegmentIndexStore in open found unsaved changes, segments in {} will be rebuilt", directory);
+                Files.deleteIfExists(directory.resolve(MANIFEST));
+            }
+            deleteUnlisted(directory, listed);
+            return segments;
+        } catch (IOException e) {
+            log.error("SegmentIndexStore in open failed, segments in {} will be rebuilt: {}", directory, e.toString());
+            delete(segments);
+            return List.of();
+        }
+    }
+
+    /**
+     * Записывает новый сегмент и открывает его. В манифест сегмент попадает только через commit.
+     */
+    Segment write(Iterator<Segment.LemmaPostings> postings, Set<Long> droppedSites,
+                  Map<Long, int[]> coveredPages) throws IOException {
+
+        Path file = Path.of(settings.getDirectory())
+                .resolve(String.format("segment-%010d.seg", sequence.incrementAndGet()));
+        Segment.write(file, postings, droppedSites, coveredPages);
+        return Segment.open(file);
+    }
+
+    /**
+     * Атомарно заменяет список действующих сегментов.
+     */
+    void commit(List<Segment> segments) throws IOException {
+
+        Path directory = Path.of(settings.getDirectory());
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        List<String> names = segments.stream().map(s -> s.file().getFileName().toString()).toList();
+        Files.write(tmp, names, StandardCharsets.UTF_8);
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Отмечает, что в памяти есть изменения, которых нет в сегментах.
+     */
+    void markDirty() {
+        if (dirty) {
+            return;
+        }
+        try {
+            Files.createDirectories(Path.of(settings.getDirectory()));
+            Files.write(Path.of(settings.getDirectory()).resolve(DIRTY), new byte[0]);
+            dirty = true;
+        } catch (IOException e) {
+            log.error("SegmentIndexStore in markDirty failed: {}", e.toString());
+        }
+    }
+
+    /**
+     * Все изменения из памяти записаны в сегменты, и манифест обновлен.
+     */
+    void markClean() throws IOException {
+        Files.deleteIfExists(Path.of(settings.getDirectory()).resolve(DIRTY));
+        dirty = false;
+    }
+
+    /**
+     * Удаляет файлы сегментов, которые больше не нужны. Открытые отображения остаются
+     * действительными, пока снимки, которые их используют, не будут собраны сборщиком мусора.
+     */
+    void delete(Collection<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.file());
+            } catch (IOException e) {
+                log.warn("SegmentIndexStore in delete failed for {}: {}", segment.file(), e.toString());
+            }
+        }
+    }
+
+    void submitMerge(Runnable merge) {
+        merger.execute(merge);
+    }
+
+    private static long lastSequence(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(f -> SEGMENT_NAME.matcher(f.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToLong(m -> Long.parseLong(m.group(1)))
+                    .max()
+                    .orElse(0);
+        }
+    }
+
+    /**
+     * Удаляет сегменты не из манифеста и недописанные временные файлы.
+     */
+    private static void deleteUnlisted(Path directory, Set<Path> listed) throws IOException {
+        List<Path> unlisted;
+        try (Stream<Path> files = Files.list(directory)) {
+            unlisted = files.filter(f -> !listed.contains(f))
+                    .filter(f -> {
+                        String name = f.getFileName().toString();
+                        return name.startsWith("segment-") || name.equals(MANIFEST + ".tmp");
+                    })
+                    .toList();
+        }
+        for (Path file : unlisted) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        merger.shutdownNow();
+    }
+}
@@ -0,0 +1,396 @@
+package searchengine.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import searchengine.config.InputList;
+import searchengine.config.SearchSettings;
+import searchengine.config.ShardingSettings;
+import searchengine.dto.statistics.*;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Координатор шардированного режима: сам сайты не индексирует, а рассылает запросы API
+ * всем шардам и объединяет ответы. Каждый шард - обычный экземпляр приложения со своей базой
+ * и своей частью сайтов. Шарды, не ответившие за отведенное время или ответившие ошибкой, пропускаются
+ * и перечисляются в missingShards ответа. Ход индексации координатор получает из потоков /api/progress шардов.
+ * <p>
+ * Релевантность в ответе шарда нормирована по его лучшей странице, поэтому шард возвращает
+ * и наибольшую релевантность: по ней восстанавливаются исходные оценки и строится общий рейтинг.
+ */
+@Log4j2
+@Primary
+@Service
+@ConditionalOnProperty(prefix = "indexing-settings.sharding", name = "coordinator", havingValue = "true")
+public class ShardCoordinator implements StatisticsService {
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final String PROGRESS_EVENT = "progress";
+    private static final TypeReference<List<IndexingProgressItem>> PROGRESS_ITEMS = new TypeReference<>() {
+    };
+
+    private final ShardingSettings settings;
+    private final SearchSettings search;
+    private final ObjectMapper objectMapper;
+    private final IndexingProgress progress;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService progressExecutor;
+    private final HttpClient client;
+
+    private record ShardResponse(String shard, StatisticsResponse response) {
+    }
+
+    private record ShardHit(float score, SearchData data) {
+    }
+
+    public ShardCoordinator(InputList input, ObjectMapper objectMapper, IndexingProgress progress) {
+        this.settings = input.getSharding();
+        this.search = input.getSearch();
+        this.objectMapper = objectMapper;
+        this.progress = progress;
+        this.executor = Executors.newFixedThreadPool(Math.max(settings.getShards().size(), 1), r -> {
+            Thread thread = new Thread(r, "shard-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.progressExecutor = Executors.newScheduledThreadPool(Math.max(settings.getShards().size(), 1), r -> {
+            Thread thread = new Thread(r, "shard-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(settings.getTimeoutMillis()))
+                .executor(executor)
+                .build();
+
+        log.info("ShardCoordinator started with shards {}", settings.getShards());
+    }
+
+    /**
+     * Подписывается на поток /api/progress каждого шарда и пересылает его события своим подписчикам.
+     */
+    @PostConstruct
+    public void followProgress() {
+        settings.getShards().forEach(shard -> progressExecutor.execute(() -> readProgress(shard)));
+    }
+
+    /**
+     * Читает события progress шарда, пока поток не закроется. Закрытый или оборвавшийся поток
+     * открывается заново через timeoutMillis.
+     */
+    private void readProgress(String shard) {
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(shard + "/api/progress"))
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        try {
+            HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+            try (Stream<String> lines = response.body()) {
+                if (response.statusCode() != 200) {
+                    log.warn("ShardCoordinator in readProgress got status {} from shard {}",
+                            response.statusCode(), shard);
+                } else {
+                    readEvents(lines.iterator());
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("ShardCoordinator in readProgress lost progress of shard {}: {}", shard, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!progressExecutor.isShutdown()) {
+            progressExecutor.schedule(() -> readProgress(shard), settings.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void readEvents(Iterator<String> lines) throws JsonProcessingException {
+
+        String event = null;
+        StringBuilder data = new StringBuilder();
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.isEmpty()) {
+                if (PROGRESS_EVENT.equals(event) && data.length() > 0) {
+                    progress.shardProgress(objectMapper.readValue(data.toString(), PROGRESS_ITEMS));
+                }
+                event = null;
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                event = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:")) {
+                data.append(line.substring("data:".length()).trim());
+            }
+        }
+    }
+
+    @Override
+    public StatisticsResponse getStatistics() {
+
+        List<ShardResponse> all = fanOut("GET", "/api/statistics");
+        List<String> missing = missing(all, true);
+        List<ShardResponse> responses = successful(all);
+        if (responses.isEmpty()) {
+            return withMissing(new StatisticsResponse(false, "Шарды не ответили"), missing);
+        }
+
+        long sites = 0;
+        long pages = 0;
+        long lemmas = 0;
+        boolean indexing = false;
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        int size = 0;
+        List<DetailedStatisticsItem> detailed = new ArrayList<>();
+
+        for (ShardResponse shardResponse : responses) {
+            StatisticsData data = shardResponse.response().getStatistics();
+            if (data == null) {
+                continue;
+            }
+            TotalStatistics total = data.getTotal();
+            sites += total.getSites();
+            pages += total.getPages();
+            lemmas += total.getLemmas();
+            indexing |= Boolean.TRUE.equals(total.getIndexing());
+            detailed.addAll(data.getDetailed());
+            SearchCacheStatistics cache = data.getSearchCache();
+            if (cache != null) {
+                hits += cache.getHits();
+                misses += cache.getMisses();
+                evictions += cache.getEvictions();
+                size += cache.getSize();
+            }
+        }
+
+        long requests = hits + misses;
+        return withMissing(new StatisticsResponse(true, new StatisticsData(new TotalStatistics(sites, pages, lemmas,
+                indexing), detailed, new SearchCacheStatistics(hits, misses,
+                requests == 0 ? 0D : (double) hits / requests, evictions, size))), missing);
+    }
+
+    /**
+     * Шард, у которого индексация уже запущена или еще не запущена, отвечает ошибкой, поэтому
+     * для команд индексации пропущенными считаются только не ответившие шарды.
+     */
+    @Override
+    public StatisticsResponse startIndexing(Boolean incremental) {
+        return anySuccessful(fanOut("GET", "/api/startIndexing" + (incremental == null ? "" : "?incremental=" + incremental)));
+    }
+
+    @Override
+    public StatisticsResponse stopIndexing() {
+        return anySuccessful(fanOut("GET", "/api/stopIndexing"));
+    }
+
+    /**
+     * Страницу переиндексирует тот шард, которому принадлежит ее сайт, остальные ответят ошибкой.
+     */
+    @Override
+    public StatisticsResponse indexPage(String url) {
+        return anySuccessful(fanOut("POST", "/api/indexPage?url=" + encode(url)));
+    }
+
+    /**
+     * Каждый шард возвращает свои offset + limit лучших страниц, из них выбирается общая страница результатов.
+     * Шард отдает не больше max-limit страниц за запрос, поэтому глубокие страницы собираются несколькими
+     * запросами, а глубина offset + limit ограничена max-depth.
+     * Курсор координатора - смещение следующей страницы: курсоры шардов у каждого свои.
+     * При поиске по одному сайту остальные шарды отвечают ошибкой, и пропущенными считаются только не ответившие.
+     */
+    @Override
+    public StatisticsResponse search(String query, String site, Long offset, Long limit, String cursor) {
+
+        long skip;
+        try {
+            skip = cursor != null ? Long.parseLong(cursor, Character.MAX_RADIX) : offset == null ? 0 : offset;
+        } catch (NumberFormatException e) {
+            return new StatisticsResponse(false, "Некорректный курсор");
+        }
+        int maxLimit = search.getMaxLimit();
+        if (skip < 0) {
+            return new StatisticsResponse(false, cursor != null ? "Некорректный курсор" : "Смещение не может быть отрицательным");
+        } else if (limit != null && (limit < 1 || limit > maxLimit)) {
+            return new StatisticsResponse(false, "Количество результатов должно быть от 1 до " + maxLimit);
+        }
+        int pageLimit = limit == null ? DEFAULT_LIMIT : limit.intValue();
+        if (skip + pageLimit > search.getMaxDepth()) {
+            return new StatisticsResponse(false, "Доступны только первые " + search.getMaxDepth() + " результатов");
+        }
+
+        String request = "/api/search?query=" + encode(query) + (site == null ? "" : "&site=" + encode(site));
+        long depth = skip + pageLimit;
+        int chunk = (int) Math.min(maxLimit, depth);
+        List<ShardResponse> responses = fanOut("GET", request + "&offset=0&limit=" + chunk);
+        Set<String> missing = new LinkedHashSet<>(missing(responses, site == null));
+        List<ShardResponse> found = successful(responses);
+        if (found.isEmpty()) {
+            return withMissing(anySuccessful(responses), missing);
+        }
+
+        long count = 0;
+        float maxScore = 0F;
+        List<ShardHit> hits = new ArrayList<>();
+        for (ShardResponse shardResponse : found) {
+            StatisticsResponse response = shardResponse.response();
+            count += response.getCount() == null ? 0 : response.getCount();
+            maxScore = Math.max(maxScore, addHits(response, hits));
+        }
+        boolean more = found.stream().anyMatch(r -> r.response().getData().size() == chunk);
+        for (long from = chunk; more && from < depth; from += maxLimit) {
+            int size = (int) Math.min(maxLimit, depth - from);
+            List<ShardResponse> deeperResponses = fanOut("GET", request + "&offset=" + from + "&limit=" + size);
+            missing.addAll(missing(deeperResponses, site == null));
+            List<ShardResponse> deeper = successful(deeperResponses);
+            deeper.forEach(r -> addHits(r.response(), hits));
+            more = deeper.stream().anyMatch(r -> r.response().getData().size() == size);
+        }
+        hits.sort(Comparator.comparing(ShardHit::score).reversed());
+
+        List<SearchData> data = new ArrayList<>();
+        for (int i = (int) Math.min(skip, hits.size()); i < hits.size() && data.size() < pageLimit; i++) {
+            SearchData hit = hits.get(i).data();
+            hit.setRelevance(maxScore == 0F ? 0F : hits.get(i).score() / maxScore);
+            data.add(hit);
+        }
+
+        StatisticsResponse result = new StatisticsResponse(true, count, data);
+        long next = skip + data.size();
+        result.setNextCursor(!data.isEmpty() && next < count && next < search.getMaxDepth()
+                ? Long.toString(next, Character.MAX_RADIX) : null);
+        result.setMaxScore(maxScore);
+        return withMissing(result, missing);
+    }
+
+    /**
+     * Добавляет страницы из ответа шарда с восстановленной исходной релевантностью.
+     *
+     * @return наибольшая релевантность шарда
+     */
+    private static float addHits(StatisticsResponse response, List<ShardHit> hits) {
+        float shardMax = response.getMaxScore() == null ? 1F : response.getMaxScore();
+        for (SearchData data : response.getData()) {
+            hits.add(new ShardHit(data.getRelevance() * shardMax, data));
+        }
+        return shardMax;
+    }
+
+    /**
+     * Отправляет запрос всем шардам параллельно и ждет ответов не дольше timeoutMillis.
+     * Для шардов, не ответивших вовремя или ответивших ошибкой HTTP, ответ - null.
+     */
+    private List<ShardResponse> fanOut(String method, String pathAndQuery) {
+
+        Map<String, CompletableFuture<HttpResponse<String>>> futures = new LinkedHashMap<>();
+        for (String shard : settings.getShards()) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(shard + pathAndQuery))
+                    .timeout(Duration.ofMillis(settings.getTimeoutMillis()))
+                    .method(method, HttpRequest.BodyPublishers.noBody())
+                    .build();
+            futures.put(shard, client.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getTimeoutMillis());
+        List<ShardResponse> responses = new ArrayList<>();
+        futures.forEach((shard, future) -> {
+            StatisticsResponse response = null;
+            try {
+                HttpResponse<String> httpResponse = future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                if (httpResponse.statusCode() == 200) {
+                    response = objectMapper.readValue(httpResponse.body(), StatisticsResponse.class);
+                } else {
+                    log.warn("ShardCoordinator in fanOut got status {} from shard {} for {}",
+                            httpResponse.statusCode(), shard, pathAndQuery);
+                }
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                log.warn("ShardCoordinator in fanOut timed out waiting for shard {} for {}", shard, pathAndQuery);
+            } catch (ExecutionException | JsonProcessingException e) {
+                log.warn("ShardCoordinator in fanOut failed for shard {} for {}: {}", shard, pathAndQuery, e.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responses.add(new ShardResponse(shard, response));
+        });
+        return responses;
+    }
+
+    private static List<ShardResponse> successful(List<ShardResponse> responses) {
+        return responses.stream()
+                .filter(r -> r.response() != null && Boolean.TRUE.equals(r.response().getResult()))
+                .toList();
+    }
+
+    /**
+     * Шарды, которые не ответили, а при rejected и те, что ответили ошибкой. Ошибки шардов пишутся в лог,
+     * не ответившие шарды уже записаны в fanOut.
+     */
+    private static List<String> missing(List<ShardResponse> responses, boolean rejected) {
+        List<String> missing = new ArrayList<>();
+        for (ShardResponse shardResponse : responses) {
+            StatisticsResponse response = shardResponse.response();
+            if (response == null) {
+                missing.add(shardResponse.shard());
+            } else if (rejected && !Boolean.TRUE.equals(response.getResult())) {
+                log.warn("ShardCoordinator in missing skipped shard {}: {}",
+                        shardResponse.shard(), response.getError());
+                missing.add(shardResponse.shard());
+            }
+        }
+        return missing;
+    }
+
+    private static StatisticsResponse withMissing(StatisticsResponse response, Collection<String> missing) {
+        response.setMissingShards(List.copyOf(missing));
+        return response;
+    }
+
+    /**
+     * Успешный ответ любого шарда, иначе первая ошибка шардов. В ответе перечисляются не ответившие шарды.
+     */
+    private static StatisticsResponse anySuccessful(List<ShardResponse> responses) {
+        List<ShardResponse> found = successful(responses);
+        StatisticsResponse response = !found.isEmpty() ? found.get(0).response() : responses.stream()
+                .map(ShardResponse::response)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElseGet(() -> new StatisticsResponse(false, "Шарды не ответили"));
+        return withMissing(response, missing(responses, false));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        progressExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+}
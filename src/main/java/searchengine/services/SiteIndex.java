@@ -0,0 +1,120 @@
+package searchengine.services;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Индекс одного сайта. После публикации в снимке не изменяется: правки вносятся в копию,
+ * которая делит с оригиналом все списки страниц, кроме измененных.
+ */
+class SiteIndex {
+
+    private final Map<String, Long> lemmaIds;
+    private final Map<Long, Postings> postings;
+    private final Set<Integer> coveredPages;
+    private final Set<Long> owned = new HashSet<>();
+    private final boolean shared;
+
+    SiteIndex() {
+        this(new HashMap<>(), new HashMap<>(), new HashSet<>(), false);
+    }
+
+    private SiteIndex(Map<String, Long> lemmaIds, Map<Long, Postings> postings, Set<Integer> coveredPages,
+                      boolean shared) {
+        this.lemmaIds = lemmaIds;
+        this.postings = postings;
+        this.coveredPages = coveredPages;
+        this.shared = shared;
+    }
+
+    SiteIndex copy() {
+        return new SiteIndex(new HashMap<>(lemmaIds), new HashMap<>(postings), new HashSet<>(coveredPages), true);
+    }
+
+    Set<String> lemmas() {
+        return lemmaIds.keySet();
+    }
+
+    Postings postings(String lemma) {
+        Long lemmaId = lemmaIds.get(lemma);
+        return lemmaId == null ? null : postings.get(lemmaId);
+    }
+
+    Long lemmaId(String lemma) {
+        return lemmaIds.get(lemma);
+    }
+
+    void put(long lemmaId, String lemma, int pageId, float rank) {
+        lemmaIds.putIfAbsent(lemma, lemmaId);
+        Postings lemmaPostings = editable(lemmaId);
+        if (lemmaPostings == null) {
+            lemmaPostings = new Postings();
+            postings.put(lemmaId, lemmaPostings);
+            owned.add(lemmaId);
+        }
+        lemmaPostings.put(pageId, rank);
+    }
+
+    void remove(long lemmaId, String lemma, int pageId) {
+
+        Postings lemmaPostings = editable(lemmaId);
+        if (lemmaPostings == null) {
+            return;
+        }
+        lemmaPostings.remove(pageId);
+        if (lemmaPostings.size() == 0) {
+            postings.remove(lemmaId);
+            lemmaIds.remove(lemma, lemmaId);
+        }
+    }
+
+    /**
+     * Отмечает, что списки страницы в этом индексе заменяют ее списки в сегментах на диске.
+     */
+    void cover(int pageId) {
+        coveredPages.add(pageId);
+    }
+
+    boolean covers(int pageId) {
+        return coveredPages.contains(pageId);
+    }
+
+    boolean hasCoveredPages() {
+        return !coveredPages.isEmpty();
+    }
+
+    int[] coveredPages() {
+        return coveredPages.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Готовит измененные списки страниц к публикации.
+     */
+    void seal() {
+        owned.forEach(lemmaId -> {
+            Postings lemmaPostings = postings.get(lemmaId);
+            if (lemmaPostings != null) {
+                lemmaPostings.seal();
+            }
+        });
+    }
+
+    int lemmaCount() {
+        return lemmaIds.size();
+    }
+
+    /**
+     * Список страниц, который можно менять: в копии индекса общий с оригиналом список
+     * при первом изменении заменяется собственной копией.
+     */
+    private Postings editable(long lemmaId) {
+        Postings lemmaPostings = postings.get(lemmaId);
+        if (lemmaPostings != null && shared && owned.add(lemmaId)) {
+            lemmaPostings = lemmaPostings.copy();
+            postings.put(lemmaId, lemmaPostings);
+        }
+        return lemmaPostings;
+    }
+}
@@ -0,0 +1,105 @@
+package searchengine.services;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import searchengine.config.InputList;
+import searchengine.model.Site;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Поиск по нескольким сайтам параллельно: каждый сайт собирает свои лучшие страницы,
+ * затем они объединяются в общий рейтинг. У запроса один срок на все сайты: сайт, не успевший
+ * к сроку, возвращает то, что успел собрать, или не учитывается вовсе.
+ */
+@Log4j2
+@Component
+public class SiteSearchExecutor {
+
+    private final InvertedIndex invertedIndex;
+    private final InputList input;
+    private final ExecutorService executor;
+
+    public SiteSearchExecutor(InvertedIndex invertedIndex, InputList input) {
+        this.invertedIndex = invertedIndex;
+        this.input = input;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(input.getSearch().getParallelism(), 1), r -> {
+            Thread thread = new Thread(r, "site-search-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param after курсор: учитываются только страницы с ключом меньше него
+     * @return depth лучших страниц по всем сайтам
+     */
+    public SearchHits search(List<Site> siteList, List<String> queryLemmas, int depth, long after) {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(input.getSearch().getDeadlineMillis());
+        if (siteList.isEmpty()) {
+            return SearchHits.empty();
+        }
+        if (siteList.size() == 1) {
+            return searchSite(siteList.get(0), queryLemmas, depth, after, deadline);
+        }
+
+        List<Future<SearchHits>> futures = new ArrayList<>(siteList.size());
+        for (Site site : siteList) {
+            futures.add(executor.submit(() -> searchSite(site, queryLemmas, depth, after, deadline)));
+        }
+
+        List<SearchHits> parts = new ArrayList<>(siteList.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<SearchHits> future = futures.get(i);
+            try {
+                parts.add(future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException | CancellationException e) {
+                future.cancel(true);
+                parts.add(SearchHits.empty().incomplete());
+                log.warn("SiteSearchExecutor in search missed the deadline for site {}", siteList.get(i).getUrl());
+            } catch (ExecutionException e) {
+                parts.add(SearchHits.empty().incomplete());
+                log.error("SiteSearchExecutor in search failed for site {}", siteList.get(i).getUrl(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                parts.add(SearchHits.empty().incomplete());
+                break;
+            }
+        }
+        return SearchHits.merge(parts, depth);
+    }
+
+    private SearchHits searchSite(Site site, List<String> queryLemmas, int depth, long after, long deadline) {
+
+        log.info("SiteSearchExecutor in searchSite started searching for lemmas: {} and site: {}", queryLemmas, site.getUrl());
+
+        SearchHits.Collector collector = new SearchHits.Collector(depth, after, deadline);
+        invertedIndex.match(site.getId(), queryLemmas, collector);
+        SearchHits hits = collector.build();
+
+        if (!hits.isComplete()) {
+            log.warn("SiteSearchExecutor in searchSite stopped at the deadline for site {}", site.getUrl());
+        }
+        log.info("SiteSearchExecutor in searchSite found {} pages{} for site {}, pruned {} candidates", hits.total(),
+                hits.isExactTotal() ? "" : " (estimated)", site.getUrl(), collector.pruned());
+        return hits;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
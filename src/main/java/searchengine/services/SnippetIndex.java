@@ -0,0 +1,285 @@
+package searchengine.services;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Указатель для построения сниппетов, который готовится при индексации: границы предложений
+ * в тексте страницы и id лемм каждого предложения. При поиске по нему выбирается лучший
+ * фрагмент, а заново разбирается и подсвечивается только сам фрагмент.
+ * В странице хранится в виде последовательности чисел переменной длины (varint).
+ */
+final class SnippetIndex {
+
+    static final int MAX_SENTENCE_LENGTH = 200;
+    static final int SNIPPET_LENGTH = 300;
+    private static final int MAX_QUERY_LEMMAS = 31;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[][] lemmaIds;
+
+    record Sentence(int start, int end, Set<String> lemmas) {
+    }
+
+    private SnippetIndex(int[] starts, int[] ends, int[][] lemmaIds) {
+        this.starts = starts;
+        this.ends = ends;
+        this.lemmaIds = lemmaIds;
+    }
+
+    /**
+     * Делит текст на предложения по знакам конца предложения и переводам строк,
+     * слишком длинные предложения режутся по пробелам. Предложения без лемм пропускаются.
+     */
+    static List<Sentence> split(CharSequence text, Lemmatizer lemmatizer) {
+
+        List<Sentence> sentences = new ArrayList<>();
+        int n = text.length();
+        int pos = 0;
+
+        while (pos < n) {
+            while (pos < n && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            if (pos >= n) {
+                break;
+            }
+
+            int start = pos;
+            int limit = Math.min(n, start + MAX_SENTENCE_LENGTH);
+            int end = -1;
+            int lastSpace = -1;
+            for (int i = start; i < limit && end < 0; i++) {
+                char c = text.charAt(i);
+                if (c == '\n') {
+                    end = i;
+                } else if (c == '.' || c == '!' || c == '?') {
+                    end = i + 1;
+                } else if (Character.isWhitespace(c)) {
+                    lastSpace = i;
+                }
+            }
+            if (end < 0) {
+                end = limit == n ? n : lastSpace > start ? lastSpace : limit;
+            }
+            pos = end;
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+
+            Set<String> lemmas = new HashSet<>();
+            for (int i = start; i < end; ) {
+                int wordEnd = wordEnd(text, i, end);
+                if (wordEnd > i) {
+                    String lemma = normalForm(text, i, wordEnd, lemmatizer);
+                    if (lemma != null) {
+                        lemmas.add(lemma);
+                    }
+                    i = wordEnd;
+                } else {
+                    i++;
+                }
+            }
+            if (!lemmas.isEmpty()) {
+                sentences.add(new Sentence(start, end, lemmas));
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * @param lemmaIds id леммы или отрицательное число, если леммы нет в индексе
+     */
+    static SnippetIndex of(List<Sentence> sentences, ToIntFunction<String> lemmaIds) {
+
+        int[] starts = new int[sentences.size()];
+        int[] ends = new int[sentences.size()];
+        int[][] ids = new int[sentences.size()][];
+        for (int i = 0; i < sentences.size(); i++) {
+            Sentence sentence = sentences.get(i);
+            starts[i] = sentence.start();
+            ends[i] = sentence.end();
+            ids[i] = sentence.lemmas().stream().mapToInt(lemmaIds).filter(id -> id >= 0).sorted().distinct().toArray();
+        }
+        return new SnippetIndex(starts, ends, ids);
+    }
+
+    byte[] encode() {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(starts.length * 16);
+        writeVarint(out, starts.length);
+        int previousEnd = 0;
+        for (int i = 0; i < starts.length; i++) {
+            writeVarint(out, starts[i] - previousEnd);
+            writeVarint(out, ends[i] - starts[i]);
+            writeVarint(out, lemmaIds[i].length);
+            int previousId = 0;
+            for (int id : lemmaIds[i]) {
+                writeVarint(out, id - previousId);
+                previousId = id;
+            }
+            previousEnd = ends[i];
+        }
+        return out.toByteArray();
+    }
+
+    static SnippetIndex decode(byte[] bytes) {
+
+        int[] position = {0};
+        int count = readVarint(bytes, position);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[][] ids = new int[count][];
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = previousEnd + readVarint(bytes, position);
+            ends[i] = starts[i] + readVarint(bytes, position);
+            ids[i] = new int[readVarint(bytes, position)];
+            int previousId = 0;
+            for (int j = 0; j < ids[i].length; j++) {
+                previousId += readVarint(bytes, position);
+                ids[i][j] = previousId;
+            }
+            previousEnd = ends[i];
+        }
+        return new SnippetIndex(starts, ends, ids);
+    }
+
+    int size() {
+        return starts.length;
+    }
+
+    /**
+     * Выбирает фрагмент из подряд идущих предложений длиной не больше SNIPPET_LENGTH,
+     * в котором встречается больше всего разных лемм запроса, при равенстве - больше всего совпадений.
+     *
+     * @return начало и конец фрагмента в тексте страницы или null, если предложений нет
+     */
+    int[] window(int[] queryLemmaIds) {
+
+        if (starts.length == 0) {
+            return null;
+        }
+
+        int[] masks = new int[starts.length];
+        int queryCount = Math.min(queryLemmaIds.length, MAX_QUERY_LEMMAS);
+        for (int i = 0; i < starts.length; i++) {
+            for (int q = 0; q < queryCount; q++) {
+                if (queryLemmaIds[q] >= 0 && Arrays.binarySearch(lemmaIds[i], queryLemmaIds[q]) >= 0) {
+                    masks[i] |= 1 << q;
+                }
+            }
+        }
+
+        int bestFirst = 0;
+        int bestLast = 0;
+        long bestScore = -1;
+        for (int first = 0; first < starts.length; first++) {
+            if (masks[first] == 0 && bestScore >= 0) {
+                continue;
+            }
+            int mask = 0;
+            int hits = 0;
+            int last = first;
+            for (int i = first; i < starts.length && ends[i] - starts[first] <= SNIPPET_LENGTH; i++) {
+                mask |= masks[i];
+                hits += Integer.bitCount(masks[i]);
+                last = i;
+            }
+            long score = ((long) Integer.bitCount(mask) << 32) | hits;
+            if (score > bestScore) {
+                bestScore = score;
+                bestFirst = first;
+                bestLast = last;
+            }
+        }
+        return new int[]{starts[bestFirst], ends[bestLast]};
+    }
+
+    /**
+     * Текст фрагмента со схлопнутыми пробелами, слова с леммами из запроса выделены тегом b.
+     */
+    static String highlight(CharSequence text, int start, int end, Set<String> queryLemmas, Lemmatizer lemmatizer) {
+
+        StringBuilder snippet = new StringBuilder(end - start + 32);
+        int pos = start;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            int wordEnd = wordEnd(text, pos, end);
+            if (wordEnd > pos) {
+                String lemma = normalForm(text, pos, wordEnd, lemmatizer);
+                boolean matched = lemma != null && queryLemmas.contains(lemma);
+                if (matched) {
+                    snippet.append("<b>");
+                }
+                snippet.append(text, pos, wordEnd);
+                if (matched) {
+                    snippet.append("</b>");
+                }
+                pos = wordEnd;
+            } else if (Character.isWhitespace(c)) {
+                while (pos < end && Character.isWhitespace(text.charAt(pos))) {
+                    pos++;
+                }
+                snippet.append(' ');
+            } else {
+                snippet.append(c);
+                pos++;
+            }
+        }
+        return snippet.toString();
+    }
+
+    /**
+     * Конец русского слова, начинающегося с позиции from, или from, если там не буква.
+     */
+    private static int wordEnd(CharSequence text, int from, int to) {
+        int i = from;
+        while (i < to && isRussianLetter(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isRussianLetter(char c) {
+        c = TokenCounter.toLowerRussian(c);
+        return c >= 'а' && c <= 'я';
+    }
+
+    /**
+     * Слова отбираются по тем же правилам, что и при подсчете лемм страницы в TokenCounter.
+     */
+    private static String normalForm(CharSequence text, int start, int end, Lemmatizer lemmatizer) {
+
+        int length = end - start;
+        if (length < 2 || length > TokenCounter.MAX_TOKEN_LENGTH) {
+            return null;
+        }
+        char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = TokenCounter.toLowerRussian(text.charAt(start + i));
+        }
+        return lemmatizer.normalForm(new String(word));
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -5,11 +5,11 @@ import searchengine.dto.statistics.StatisticsResponse;
 public interface StatisticsService {
     StatisticsResponse getStatistics();
 
-    StatisticsResponse startIndexing();
+    StatisticsResponse startIndexing(Boolean incremental);
 
     StatisticsResponse stopIndexing();
 
     StatisticsResponse indexPage(String url);
 
-    StatisticsResponse search(String query, String site, Long offset, Long limit);
+    StatisticsResponse search(String query, String site, Long offset, Long limit, String cursor);
 }
@@ -2,30 +2,35 @@ package searchengine.services;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.apache.lucene.morphology.LuceneMorphology;
-import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import searchengine.config.Input;
 import searchengine.config.InputList;
 import searchengine.dto.statistics.*;
 import searchengine.model.*;
 import searchengine.repository.IndexRepository;
 import searchengine.repository.LemmaRepository;
+import searchengine.repository.PageContentRepository;
 import searchengine.repository.PageRepository;
+import searchengine.repository.PageSummary;
+import searchengine.repository.SiteCount;
 import searchengine.repository.SiteRepository;
 
 import javax.persistence.EntityManager;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 @Log4j2
 @Service
@@ -33,12 +38,24 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class StatisticsServiceImpl implements StatisticsService {
 
+    private static final int DEFAULT_LIMIT = 20;
+
     private final InputList input;
     private final SiteRepository siteRepository;
     private final LemmaRepository lemmaRepository;
     private final Lemmatizer lemmatizer;
     private final PageRepository pageRepository;
+    private final PageContentRepository pageContentRepository;
     private final IndexRepository indexRepository;
+    private final InvertedIndex invertedIndex;
+    private final BulkIndexWriter bulkIndexWriter;
+    private final PolitenessScheduler politenessScheduler;
+    private final PageFetcher pageFetcher;
+    private final SearchCache searchCache;
+    private final SiteSearchExecutor siteSearchExecutor;
+    private final ContentCodec contentCodec;
+    private final SearchEngineMetrics metrics;
+    private final IndexingProgress progress;
 
     private final EntityManager entityManager;
 
@@ -53,18 +70,20 @@ public class StatisticsServiceImpl implements StatisticsService {
         if (input.getInput().isEmpty() || siteList.get(0) == null) {
             StatisticsResponse response = new StatisticsResponse(true);
             response.setStatistics(new StatisticsData(new TotalStatistics(0L, 0L, 0L, false),
-                    Collections.emptyList()));
+                    Collections.emptyList(), searchCache.statistics()));
             return response;
         }
 
         List<DetailedStatisticsItem> detailedList = new ArrayList<>();
+        Map<Long, Long> pageCounts = toMap(pageRepository.countBySite());
+        Map<Long, Long> lemmaCounts = toMap(lemmaRepository.countBySite());
 
         Long totalPages = 0L;
         Long totalLemmas = 0L;
 
         for (Site s : siteList) {
-            Long pagesCount = (long) pageRepository.findAllBySite(s).size();
-            Long lemmasCount = (long) lemmaRepository.findAllBySite(s).size();
+            Long pagesCount = pageCounts.getOrDefault(s.getId(), 0L);
+            Long lemmasCount = lemmaCounts.getOrDefault(s.getId(), 0L);
             DetailedStatisticsItem item = new DetailedStatisticsItem(s.getUrl(), s.getName(), s.getStatus(), s.getStatusTime(),
                     pagesCount, lemmasCount);
             totalPages += pagesCount;
@@ -77,11 +96,17 @@ public class StatisticsServiceImpl implements StatisticsService {
         }
 
         return new StatisticsResponse(true, new StatisticsData(new TotalStatistics((long) siteList.size(), totalPages, totalLemmas,
-                !siteRepository.findAllByStatus(Status.INDEXING).isEmpty()), detailedList));
+                !siteRepository.findAllByStatus(Status.INDEXING).isEmpty()), detailedList, searchCache.statistics()));
+    }
+
+    private static Map<Long, Long> toMap(List<SiteCount> counts) {
+        Map<Long, Long> result = new HashMap<>();
+        counts.forEach(c -> result.put(c.getSiteId(), c.getCount()));
+        return result;
     }
 
     @Override
-    public StatisticsResponse startIndexing() {
+    public StatisticsResponse startIndexing(Boolean incremental) {
 
         log.info("StatisticsServiceImpl in startIndexing started..");
 
@@ -91,13 +116,54 @@ public class StatisticsServiceImpl implements StatisticsService {
             return new StatisticsResponse(false, "Индексация уже запущена");
         }
 
-        if (!siteRepository.findAllByStatus(Status.FAILED).isEmpty() || !siteRepository.findAllByStatus(Status.INDEXED).isEmpty()) {
-
-            log.info("StatisticsServiceImpl in startIndexing deleted Sites and Pages.");
-            dropDatabase();
+        Path frontierDir = Path.of(input.getFrontierDir());
+        boolean recrawl = incremental != null ? incremental : input.isIncremental();
+        List<Site> resumed = new ArrayList<>();
+        List<Site> recrawled = new ArrayList<>();
+
+        for (Site site : siteRepository.findAll()) {
+            boolean configured = input.getInput().stream().anyMatch(i -> i.getUrl().equals(site.getUrl()));
+            if (configured && site.getStatus() == Status.FAILED && CrawlFrontier.exists(frontierDir, site.getId())) {
+                log.info("StatisticsServiceImpl in startIndexing resumes interrupted site {}", site.getUrl());
+                site.setStatus(Status.INDEXING);
+                site.setLastError(null);
+                site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
+                siteRepository.save(site);
+                resumed.add(site);
+            } else if (configured && recrawl && site.getStatus() == Status.INDEXED) {
+                log.info("StatisticsServiceImpl in startIndexing re-crawls site {}", site.getUrl());
+                site.setStatus(Status.INDEXING);
+                site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
+                siteRepository.save(site);
+                recrawled.add(site);
+            } else {
+                log.info("StatisticsServiceImpl in startIndexing deleted site {} with its pages.", site.getUrl());
+                dropSite(site);
+            }
         }
 
-        return indexSites(createSites());
+        indexSites(resumed, CrawlMode.RESUME);
+        indexSites(recrawled, CrawlMode.INCREMENTAL);
+        List<String> existingUrls = new ArrayList<>();
+        resumed.forEach(s -> existingUrls.add(s.getUrl()));
+        recrawled.forEach(s -> existingUrls.add(s.getUrl()));
+        return indexSites(createSites(existingUrls), CrawlMode.FULL);
+    }
+
+    /**
+     * Сайты, оставшиеся в статусе INDEXING после остановки приложения, помечаются прерванными,
+     * чтобы следующий запуск индексации мог их продолжить.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedSites() {
+
+        siteRepository.findAllByStatus(Status.INDEXING).forEach(s -> {
+            log.info("StatisticsServiceImpl in recoverInterruptedSites marks site {} as interrupted", s.getUrl());
+            s.setStatus(Status.FAILED);
+            s.setLastError("Индексация прервана остановкой приложения");
+            s.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
+            siteRepository.save(s);
+        });
     }
 
     @Override
@@ -112,6 +178,7 @@ public class StatisticsServiceImpl implements StatisticsService {
                 s.setLastError("Прервано пользователем");
                 s.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
                 siteRepository.save(s);
+                progress.statusChanged(s);
             });
             return new StatisticsResponse(true);
         } else
@@ -124,7 +191,6 @@ public class StatisticsServiceImpl implements StatisticsService {
 
         log.info("StatisticsServiceImpl in indexPage started process for the page: " + url);
 
-        HashMap<String, Long> result = new HashMap<>();
         String suffix = (url.substring(url.indexOf(".")));
         if (suffix.contains("/")) {
             suffix = suffix.substring(0, suffix.indexOf("/") + 1);
@@ -133,81 +199,117 @@ public class StatisticsServiceImpl implements StatisticsService {
 
         String path = url.substring(url.indexOf(".") + suffix.length() - 1);
 
-        List<Page> pageList = pageRepository.findAllByPathAndSite(path, site).stream().filter(Objects::nonNull).toList();
         if (site.getName().isEmpty()) {
             return new StatisticsResponse(false,
                     "Данная страница находится за пределами сайтов, указанных в конфигурационном файле");
+        }
 
-        } else {
+        log.info("StatisticsServiceImpl in indexPage started indexing page: " + url);
 
-            if (!pageList.isEmpty()) {
+        Document document;
+        try {
+            document = Jsoup.connect(url).followRedirects(false).timeout(20000).get();
+        } catch (IOException ex) {
+            log.error("StatisticsServiceImpl in indexPage failed to load page: " + url, ex);
+            return new StatisticsResponse(false, "Не удалось загрузить страницу");
+        }
+        String text = document.body().wholeText();
 
-                log.info("StatisticsServiceImpl in indexPage started deleting page, lemmas and indexes for {}: " + url);
+        List<Page> pageList = pageRepository.findAllByPathAndSite(path, site).stream().filter(Objects::nonNull).toList();
+        List<Index> duplicates = new ArrayList<>();
+        pageList.stream().skip(1).forEach(p -> duplicates.addAll(deletePageLemmasIndexes(p)));
 
-                pageList.forEach(this::deletePageLemmasIndexes);
+        Page page = pageList.isEmpty() ? new Page(site, path, 200L, document.title()) : pageList.get(0);
+        page.setCode(200L);
+        page.setTitle(document.title());
+        pageRepository.save(page);
+        pageContentRepository.deleteContent(page.getId());
+        PageContent pageContent = pageContentRepository.save(new PageContent(page, text));
+        entityManager.flush();
 
-            }
+        reindexPage(site, page, pageContent, duplicates);
+        log.info("StatisticsServiceImpl in indexPage indexed page: " + page.getPath());
 
-            log.info("StatisticsServiceImpl in indexPage started indexing page: " + url);
+        return new StatisticsResponse(true);
+    }
 
-            try {
-                Document document = Jsoup.connect(url).followRedirects(false).timeout(20000).get();
-                String text = document.body().wholeText();
-                Page page = new Page(site, path, 200L, text, document.title());
-                pageRepository.save(page);
-                log.info("StatisticsServiceImpl in indexPage saved page: " + page.getPath());
-            } catch (IOException ex) {
-                ex.printStackTrace();
+    /**
+     * Переиндексирует страницу по разнице старых и новых лемм: частоты лемм, появившихся на странице,
+     * увеличиваются одним пакетным upsert, исчезнувших - уменьшаются одним UPDATE, индексы
+     * вставляются или обновляются пакетно. Индекс в памяти меняется после фиксации транзакции одним обновлением.
+     *
+     * @param deleted индексы удаленных дублей страницы, убираются из индекса в памяти тем же обновлением
+     */
+    private synchronized void reindexPage(Site site, Page page, PageContent pageContent, List<Index> deleted) {
+
+        Map<String, Long> counts = lemmatizer.lemmatizeText(pageContent.getContent());
+        Map<String, Lemma> previous = new HashMap<>();
+        List<Index> staleList = new ArrayList<>();
+        for (Index index : indexRepository.findAllWithLemmaByPageId(page.getId())) {
+            previous.put(index.getLemma().getLemma(), index.getLemma());
+            if (!counts.containsKey(index.getLemma().getLemma())) {
+                staleList.add(index);
             }
+        }
 
-            pageList = pageRepository.findAllByPathAndSite(path, site).stream().filter(Objects::nonNull).toList();
-
-            pageList.forEach(page -> {
-
-                result.putAll(lemmatizer.lemmatizeText(page.getContent()));
+        Map<String, Long> added = new HashMap<>();
+        counts.keySet().stream().filter(l -> !previous.containsKey(l)).forEach(l -> added.put(l, 1L));
+        Map<String, Long> addedIds = added.isEmpty() ? Map.of() : bulkIndexWriter.addLemmaFrequencies(site, added);
 
-                HashMap<String, Long> sortedResult = result.entrySet()
-                        .stream()
-                        .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                                (e1, e2) -> e1, LinkedHashMap::new));
+        Map<String, Lemma> pageLemmas = new HashMap<>();
+        List<Index> indexList = new ArrayList<>();
+        counts.forEach((key, value) -> {
+            Lemma lemma = previous.get(key);
+            if (lemma == null) {
+                lemma = new Lemma(site, key, 1L);
+                lemma.setId(addedIds.get(key));
+            }
+            pageLemmas.put(key, lemma);
+            indexList.add(new Index(page, lemma, value.floatValue()));
+        });
 
-                log.info("StatisticsServiceImpl in indexPage indexed page: {}, result: {}. " +
-                        "Going to make some indexes and lemmas." + url, sortedResult);
+        bulkIndexWriter.deleteIndexes(staleList);
+        bulkIndexWriter.decrementLemmas(staleList.stream().map(i -> i.getLemma().getId()).toList());
+        bulkIndexWriter.upsertIndexes(indexList);
 
-                sortedResult.forEach((key, value) -> {
-                    List<Lemma> currentLemmas = lemmaRepository.findAllByLemma(key);
-                    if (currentLemmas.isEmpty()) {
-                        indexRepository.save(new Index(page, lemmaRepository.save(new Lemma(site, key, 1L)), value.floatValue()));
-                    } else {
-                        Lemma lemma = currentLemmas.get(0);
-                        lemma.setFrequency(lemma.getFrequency() + 1L);
-                        indexRepository.save(new Index(page, lemmaRepository.save(lemma), value.floatValue()));
-                    }
-                });
+        pageContent.setSnippetIndex(SnippetIndex.of(SnippetIndex.split(pageContent.getContent(), lemmatizer),
+                l -> lemmaId(pageLemmas.get(l))).encode());
+        pageContentRepository.save(pageContent);
 
-            });
+        log.info("StatisticsServiceImpl in reindexPage page {}: {} lemmas added, {} removed, {} indexes written",
+                page.getPath(), added.size(), staleList.size(), indexList.size());
 
-            return new StatisticsResponse(true);
-        }
+        List<Index> removedList = new ArrayList<>(deleted);
+        removedList.addAll(staleList);
+        afterCommit(() -> invertedIndex.update(removedList, indexList));
     }
 
     @Override
-    public synchronized StatisticsResponse search(String query, String siteString, Long offset, Long limit) {
+    public StatisticsResponse search(String query, String siteString, Long offset, Long limit, String cursor) {
 
         if (query.trim().isEmpty()) {
             return new StatisticsResponse(false, "Задан пустой поисковый запрос");
         }
+        int maxLimit = input.getSearch().getMaxLimit();
+        if (offset != null && offset < 0) {
+            return new StatisticsResponse(false, "Смещение не может быть отрицательным");
+        } else if (limit != null && (limit < 1 || limit > maxLimit)) {
+            return new StatisticsResponse(false, "Количество результатов должно быть от 1 до " + maxLimit);
+        }
+        long start = System.nanoTime();
         List<Site> siteList = new ArrayList<>();
 
         if (siteString == null) {
 
-            if (!siteRepository.findAllByStatus(Status.INDEXING).isEmpty()) {
-                return new StatisticsResponse(false, "Идет индексация сайтов");
-            } else if (!siteRepository.findAllByStatus(Status.FAILED).isEmpty()) {
+            // пока одни сайты индексируются, поиск идет по уже проиндексированным: их индекс в памяти -
+            // неизменяемый снимок, который индексация не затрагивает
+            if (!siteRepository.findAllByStatus(Status.FAILED).isEmpty()) {
                 return new StatisticsResponse(false, "Ошибка индексации сайтов, необходимо перезапустить индексацию");
             }
             siteList.addAll(siteRepository.findAllByStatus(Status.INDEXED));
+            if (siteList.isEmpty() && !siteRepository.findAllByStatus(Status.INDEXING).isEmpty()) {
+                return new StatisticsResponse(false, "Идет индексация сайтов");
+            }
         } else {
 
             Site siteCurrent = siteRepository.findByUrl(siteString);
@@ -219,84 +321,108 @@ public class StatisticsServiceImpl implements StatisticsService {
             siteList.add(siteCurrent);
         }
 
-        Long count = 0L;
-        List<Page> relevanceList = new ArrayList<>();
-        HashMap<Page, Float> relevanceMap = new HashMap<>();
-
-        for (Site site : siteList) {
-
-            log.info("StatisticsServiceImpl in search started searching for query: {} and site: {}", query, site.getUrl());
-
-            HashMap<String, Long> sortedResult = lemmatizer.lemmatizeText(query)
-                    .entrySet()
-                    .stream()
-                    .peek(e -> {
-                        Lemma lemma = lemmaRepository.findByLemmaAndSite(e.getKey(), site);
-                        e.setValue(lemma == null ? 0L : lemma.getFrequency());
-                    })
-                    .sorted(Map.Entry.comparingByValue())
-                    .limit(20)
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                            (e1, e2) -> e1, LinkedHashMap::new));
-
-            if (!sortedResult.containsValue(0L)) {
-
-                List<String> stringsLemmas = sortedResult.keySet().stream().toList();
-                List<Index> indexList = indexRepository.findAllByLemma(lemmaRepository.findByLemmaAndSite(stringsLemmas.get(0), site));
-                List<Page> pageList = new ArrayList<>();
-                indexList.forEach(i -> pageList.add(i.getPage()));
-                List<Page> reducedPageList = pageList;
-                for (String word : sortedResult.keySet()) {
-
-                    reducedPageList = reducedPageList.stream()
-                            .filter(p -> !indexRepository.findAllByLemmaAndPage(lemmaRepository.findByLemmaAndSite(word, site), p).isEmpty())
-                            .toList();
-                }
-
-                log.info("StatisticsServiceImpl in search result (reduced): {}", reducedPageList);
-
-                count += reducedPageList.size();
-                relevanceList.addAll(reducedPageList);
-            }
+        List<String> queryLemmas = new ArrayList<>(lemmatizer.lemmatizeText(query).keySet());
+        long after;
+        try {
+            after = SearchHits.parseCursor(cursor);
+        } catch (NumberFormatException e) {
+            return new StatisticsResponse(false, "Некорректный курсор");
         }
-
-        Float totalAbsoluteRelevance = 0F;
-        HashMap<String, Long> sortedResult = lemmatizer.lemmatizeText(query);
-        for (Page page : relevanceList) {
-            Float absoluteRelevance = 0F;
-            for (String word : sortedResult.keySet()) {
-                absoluteRelevance += indexRepository.findByLemmaAndPage(lemmaRepository.findByLemmaAndSite(word, page.getSite()), page).getRank();
+        long skip = cursor == null && offset != null ? offset : 0;
+        int pageLimit = limit == null ? DEFAULT_LIMIT : limit.intValue();
+        long ranked = System.nanoTime();
+        metrics.searchPhase(SearchEngineMetrics.SearchPhase.LOOKUP, ranked - start);
+
+        RankedHits rankedHits = searchCached(siteList, queryLemmas, siteString, after, skip, pageLimit);
+        SearchHits hits = rankedHits.hits();
+        SearchHits.ResultPage resultPage = hits.page(rankedHits.from(), pageLimit);
+        long hydrated = System.nanoTime();
+        metrics.searchPhase(SearchEngineMetrics.SearchPhase.RANK, hydrated - ranked);
+
+        List<Long> pageIds = Arrays.stream(resultPage.pageIds()).mapToObj(id -> (long) id).toList();
+        Map<Long, Site> sites = new HashMap<>();
+        siteList.forEach(s -> sites.put(s.getId(), s));
+        Map<Long, PageSummary> pages = new HashMap<>();
+        pageRepository.findSummariesByIdIn(pageIds).forEach(p -> pages.put(p.getId(), p));
+        Map<Long, PageContent> contents = new HashMap<>();
+        pageContentRepository.findAllById(pageIds).forEach(c -> contents.put(c.getId(), c));
+
+        long snippetNanos = 0;
+        List<SearchData> data = new ArrayList<>();
+        for (int i = 0; i < pageIds.size(); i++) {
+            PageSummary p = pages.get(pageIds.get(i));
+            Site site = p == null ? null : sites.get(p.getSiteId());
+            if (site != null) {
+                long snippetStart = System.nanoTime();
+                String snippet = getSnippet(site, contents.get(p.getId()), queryLemmas);
+                snippetNanos += System.nanoTime() - snippetStart;
+                data.add(new SearchData(site.getUrl(), site.getName(), p.getPath().substring(1), p.getTitle(),
+                        snippet, resultPage.scores()[i] / hits.maxScore()));
             }
-            relevanceMap.put(page, absoluteRelevance);
-            totalAbsoluteRelevance = (totalAbsoluteRelevance > absoluteRelevance) ? totalAbsoluteRelevance : absoluteRelevance;
         }
-
-        Float finalTotalAbsoluteRelevance = totalAbsoluteRelevance;
-
-        relevanceMap = relevanceMap.entrySet()
-                .stream()
-                .peek(e -> e.setValue(e.getValue() / finalTotalAbsoluteRelevance))
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .limit(limit + offset)
-                .skip(offset)
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                        (e1, e2) -> e1, LinkedHashMap::new));
-
-        List<SearchData> data = new ArrayList<>();
-        relevanceMap.forEach((p, value) -> data.add(new SearchData(p.getSite().getUrl(), p.getSite().getName(), p.getPath().substring(1),
-                p.getTitle(), getSnippet(p, query), value)));
+        metrics.searchPhase(SearchEngineMetrics.SearchPhase.SNIPPET, snippetNanos);
+        metrics.searchPhase(SearchEngineMetrics.SearchPhase.HYDRATE, System.nanoTime() - hydrated - snippetNanos);
 
         log.info("StatisticsServiceImpl in getSnippet FINALLY GOT searchDataList {}", data);
 
-        return new StatisticsResponse(true, count, data);
+        StatisticsResponse response = new StatisticsResponse(true, hits.total(), data);
+        response.setNextCursor(resultPage.nextCursor());
+        response.setMaxScore(hits.maxScore());
+        return response;
     }
 
     //==================================================================================================================
 
-    private List<Site> createSites() {
+    /**
+     * Собранные лучшие страницы и позиция в них первой страницы запрошенной выдачи.
+     */
+    private record RankedHits(SearchHits hits, long from) {
+    }
+
+    /**
+     * Выдача нарезается из кэша, пока индекс не изменился и кэшированной глубины хватает на запрошенную
+     * страницу. Иначе выдача собирается заново с начала на глубину не меньше search-cache.depth и вдвое
+     * больше прежней, так что листание вглубь пересчитывает выдачу лишь изредка. Курсор глубже
+     * кэшированной выдачи обрабатывается без кэша: собираются только страницы после курсора.
+     * Номер снимка читается до поиска, поэтому результат, посчитанный во время изменения индекса,
+     * сразу окажется устаревшим. Результат, не уложившийся в срок запроса, не кэшируется.
+     */
+    private RankedHits searchCached(List<Site> siteList, List<String> queryLemmas, String siteString,
+                                    long after, long skip, int limit) {
+
+        SearchCache.Key key = SearchCache.key(queryLemmas, siteString);
+        long generation = invertedIndex.generation();
+
+        SearchHits cached = searchCache.get(key, generation);
+        if (cached != null) {
+            int position = cached.positionAfter(after);
+            if (position >= 0 && cached.covers(position + skip, limit)) {
+                return new RankedHits(cached, position + skip);
+            }
+        }
+        if (after != Long.MAX_VALUE) {
+            return new RankedHits(siteSearchExecutor.search(siteList, queryLemmas, limit, after), 0);
+        }
+
+        long wanted = Math.max(skip + limit, (long) input.getSearchCache().getDepth());
+        if (cached != null) {
+            wanted = Math.max(wanted, 2L * cached.depth());
+        }
+        int depth = (int) Math.min(wanted, Integer.MAX_VALUE);
+        SearchHits hits = siteSearchExecutor.search(siteList, queryLemmas, depth, Long.MAX_VALUE);
+        if (hits.isComplete()) {
+            searchCache.put(key, generation, hits);
+        }
+        return new RankedHits(hits, skip);
+    }
+
+    private List<Site> createSites(List<String> existingUrls) {
 
         List<Site> result = new ArrayList<>();
         for (Input initialInput : input.getInput()) {
+            if (existingUrls.contains(initialInput.getUrl())) {
+                continue;
+            }
             Site newSite = new Site(Status.INDEXING,
                     ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC),
                     initialInput.getUrl(), initialInput.getName());
@@ -310,186 +436,201 @@ public class StatisticsServiceImpl implements StatisticsService {
 
     }
 
-    private StatisticsResponse indexSites(List<Site> siteList) {
+    private StatisticsResponse indexSites(List<Site> siteList, CrawlMode mode) {
 
         log.info("StatisticsServiceImpl in indexSites started indexing sites: " + siteList);
 
-        siteList.forEach(s -> {
+        afterCommit(() -> siteList.forEach(s -> {
 
                     ExecutorService executors = Executors.newSingleThreadExecutor();
-                    executors.execute(new IndexThread(s, this, pageRepository, siteRepository));
+                    Input siteSettings = input.getInput().stream()
+                            .filter(i -> i.getUrl().equals(s.getUrl()))
+                            .findFirst()
+                            .orElseGet(Input::new);
+                    executors.execute(new IndexThread(s, mode, this, pageRepository, pageContentRepository, siteRepository, lemmatizer,
+                            input, politenessScheduler, pageFetcher, siteSettings, metrics, progress));
                     executors.shutdown();
                 }
-        );
+        ));
 
         return new StatisticsResponse(true);
     }
 
-    private synchronized String getSnippet(Page page, String query) {
-
-        log.info("StatisticsServiceImpl in getSnippet started for Page: {}, and query: {}", page.getPath(), query);
-
-        List<String> queryWords = lemmatizer.lemmatizeText(query).keySet().stream().toList();
-
-        try {
-            LuceneMorphology luceneMorphology = new RussianLuceneMorphology();
-            List<String> queryBaseWords = queryWords.stream().peek(q -> luceneMorphology.getNormalForms(q).get(0)).toList();
-            String pageText = Jsoup.parse(page.getContent()).text().strip();
-            List<String> sentences = List.of(pageText.split("\\."));
-            sentences = sentences
-                    .stream()
-                    .map(s -> s.concat("."))
-                    .toList();
-
-            List<String> shortSentences = new ArrayList<>();
-
-            for (String s : sentences) {
-
-                while (s.length() > 200) {
-                    int count = s.indexOf(" ", 100);
-                    if (count > 200) {
-                        s = "";
-                        continue;
-                    }
-                    shortSentences.add(s.substring(0, count));
-                    s = s.substring(count);
-                }
+    /**
+     * Сниппет строится по указателю, сохраненному при индексации страницы. Для страниц,
+     * проиндексированных до появления указателя, он строится по тексту страницы.
+     */
+    private String getSnippet(Site site, PageContent page, List<String> queryLemmas) {
 
-                shortSentences.add(s);
-            }
+        if (page == null) {
+            return null;
+        }
 
-            HashMap<String, Long> resultSnippetMap = new HashMap<>();
-            StringBuilder temp = new StringBuilder();
-            Long counter = (long) shortSentences.size();
-            for (String s : shortSentences) {
-
-                counter--;
-                if (temp.length() > 300 || counter == 0) {
-                    List<String> pageString = List.of(temp.toString().replaceAll("[^А-я]", " ").trim().split("\s+"));
-                    if (pageString.size() > 1) {
-                        HashSet<String> initialWords = new HashSet<>();
-                        HashSet<String> baseWords = new HashSet<>();
-                        pageString.forEach(string -> {
-                            if (luceneMorphology.checkString(string.toLowerCase())) {
-                                String normalFormString = luceneMorphology.getNormalForms(string.toLowerCase()).get(0);
-                                if (queryBaseWords.contains(normalFormString)) {
-                                    initialWords.add(string);
-                                    baseWords.add(normalFormString);
-
-                                }
-                            }
-                        });
-
-                        String snippet = temp.toString();
-
-                        for (String w : initialWords) {
-                            snippet = snippet.replaceAll(w, "<b>" + w + "</b>");
-                        }
-                        resultSnippetMap.put(snippet, (long) baseWords.size());
-                    }
-                    temp = new StringBuilder(s);
-                } else {
-                    temp.append(" ").append(s);
-                }
+        log.info("StatisticsServiceImpl in getSnippet started for page: {}, and lemmas: {}", page.getId(), queryLemmas);
 
+        int[] queryIds = invertedIndex.lemmaIds(site.getId(), queryLemmas);
+        SnippetIndex snippetIndex;
+        if (page.getSnippetIndex() != null) {
+            snippetIndex = SnippetIndex.decode(page.getSnippetIndex());
+        } else {
+            Map<String, Integer> ids = new HashMap<>();
+            for (int i = 0; i < queryIds.length; i++) {
+                ids.put(queryLemmas.get(i), queryIds[i]);
             }
+            snippetIndex = SnippetIndex.of(SnippetIndex.split(page.getContent(), lemmatizer),
+                    l -> ids.getOrDefault(l, -1));
+        }
 
-            resultSnippetMap = resultSnippetMap
-                    .entrySet()
-                    .stream()
-                    .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                    .limit(1)
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                            (e1, e2) -> e1, LinkedHashMap::new));
-
-
-            log.info("StatisticsServiceImpl get resultSnippetMap: {}", resultSnippetMap);
-
-
-            return resultSnippetMap.keySet().stream().findFirst().orElse(null);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        int[] window = snippetIndex.window(queryIds);
+        if (window == null) {
+            return null;
         }
+        return SnippetIndex.highlight(page.getContent(), window[0], window[1], new HashSet<>(queryLemmas), lemmatizer);
     }
 
+    private static int lemmaId(Lemma lemma) {
+        return lemma == null || lemma.getId() == null ? -1 : lemma.getId().intValue();
+    }
 
-    private synchronized void deletePageLemmasIndexes(Page page) {
 
-        log.info("StatisticsServiceImpl in deletePageLemmasIndexes started deleting page, lemmas and indexes for {}: ", page);
+    /**
+     * @return удаленные индексы страницы, которые нужно убрать из индекса в памяти
+     */
+    private synchronized List<Index> deletePageLemmasIndexes(Page page) {
 
-        List<Index> indexList = indexRepository.findAllByPageId(page.getId());
-        List<Lemma> lemmaList = indexList.stream().map(Index::getLemma).toList();
-        lemmaList.forEach(l -> {
-            Long frequency = l.getFrequency();
-            if (frequency == 1L) {
-                lemmaRepository.delete(l);
-            } else {
-                l.setFrequency(frequency - 1L);
-                lemmaRepository.save(l);
-            }
-        });
+        log.info("StatisticsServiceImpl in deletePageLemmasIndexes started deleting page, lemmas and indexes for {}: ", page);
 
-        indexRepository.deleteAll(indexList);
+        List<Index> indexList = indexRepository.findAllWithLemmaByPageId(page.getId());
+        bulkIndexWriter.deleteIndexes(indexList);
+        bulkIndexWriter.decrementLemmas(indexList.stream().map(i -> i.getLemma().getId()).toList());
+        pageContentRepository.deleteContent(page.getId());
         pageRepository.delete(page);
+
+        return indexList;
     }
 
-    public void indexPages(List<Page> pageList) {
+    /**
+     * Записывает очередную партию лемматизированных страниц сайта. Словарь лемм сайта
+     * общий для всех партий и хранит их id; частоты пишутся в базу приращениями партии.
+     *
+     * @return false, если индексация сайта была остановлена
+     */
+    public boolean indexPages(Site site, Map<String, Lemma> siteLemmas, List<LemmatizedPage> pageList) {
 
-        HashMap<String, Long> lemmaResult = new HashMap<>();
-        Site site = pageList.get(0).getSite();
+        if (siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED)) {
+            return false;
+        }
 
-        for (Page page : pageList) {
-            if (!siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED)) {
-                HashMap<String, Long> result = new HashMap<>(lemmatizer.lemmatizeText(page.getContent()));
-                result.forEach((key, value) -> {
-                    if (lemmaResult.containsKey(key)) {
-                        lemmaResult.put(key, value + 1L);
-                    } else {
-                        lemmaResult.put(key, 1L);
-                    }
+        long start = System.nanoTime();
+        List<Index> indexList = new ArrayList<>();
+        List<Index> staleList = new ArrayList<>();
+        Map<Long, byte[]> snippets = new HashMap<>();
+        int lemmaRows;
+        Map<Lemma, Long> lemmaDeltas = new LinkedHashMap<>();
+
+        synchronized (siteLemmas) {
+
+            for (LemmatizedPage page : pageList) {
+                Set<String> previous = page.replaced() ? replacePage(page, siteLemmas, lemmaDeltas, staleList) : Set.of();
+                page.lemmas().forEach((key, value) -> {
+                    Lemma lemma = siteLemmas.computeIfAbsent(key, k -> new Lemma(site, k, 0L));
+                    lemmaDeltas.merge(lemma, previous.contains(key) ? 0L : 1L, Long::sum);
+                    indexList.add(new Index(page.page(), lemma, value.floatValue()));
                 });
             }
-        }
 
-        site.setStatusTime(ZonedDateTime.of(LocalDateTime.now(), ZoneOffset.UTC));
-        siteRepository.save(site);
+            lemmaRows = bulkIndexWriter.saveLemmas(lemmaDeltas);
 
-        List<Lemma> lemmaList = new ArrayList<>();
+            for (LemmatizedPage page : pageList) {
+                snippets.put(page.page().getId(),
+                        SnippetIndex.of(page.sentences(), l -> lemmaId(siteLemmas.get(l))).encode());
+            }
+        }
 
-        lemmaResult.forEach((key, value) -> lemmaList.add(new Lemma(site, key, value)));
+        bulkIndexWriter.saveSnippets(snippets);
+        if (!staleList.isEmpty()) {
+            bulkIndexWriter.deleteIndexes(staleList);
+        }
+        bulkIndexWriter.saveIndexes(indexList);
+        metrics.batchWritten(site.getUrl(), System.nanoTime() - start, lemmaRows,
+                indexList.size() + staleList.size());
+        invertedIndex.update(staleList, indexList);
 
-        List<Index> indexList = new ArrayList<>();
+        log.info("StatisticsServiceImpl in indexPages saved {} pages and {} indexes for site {}",
+                pageList.size(), indexList.size(), site.getUrl());
 
-        for (Page page : pageList) {
-            if (!siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED)) {
-                HashMap<String, Long> result = new HashMap<>(lemmatizer.lemmatizeText(page.getContent()));
-                result.forEach((key, value) -> {
-                    List<Lemma> reducedList = lemmaList
-                            .stream()
-                            .filter(lemma -> lemma.getLemma().equals(key))
-                            .toList();
-                    reducedList.forEach(lemma -> indexList.add(new Index(page, lemma, value.floatValue())));
-                });
+        return true;
+    }
+
+    /**
+     * Старые индексы изменившейся страницы уходят в staleList, леммам, исчезнувшим со страницы,
+     * записывается уменьшение частоты. Леммы с нулевой частотой удаляются только после окончания обхода.
+     *
+     * @return леммы, которые уже были на странице до изменения
+     */
+    private Set<String> replacePage(LemmatizedPage page, Map<String, Lemma> siteLemmas, Map<Lemma, Long> lemmaDeltas,
+                                    List<Index> staleList) {
+
+        Set<String> previous = new HashSet<>();
+        for (Index index : indexRepository.findAllWithLemmaByPageId(page.page().getId())) {
+            String key = index.getLemma().getLemma();
+            previous.add(key);
+            if (!page.lemmas().containsKey(key)) {
+                Lemma lemma = siteLemmas.computeIfAbsent(key, k -> index.getLemma());
+                lemmaDeltas.merge(lemma, -1L, Long::sum);
             }
+            staleList.add(index);
         }
+        return previous;
+    }
+
+    public void removeUnusedLemmas(Site site) {
+        int removed = bulkIndexWriter.deleteUnusedLemmas(site.getId());
+        log.info("StatisticsServiceImpl in removeUnusedLemmas removed {} lemmas of site {}", removed, site.getUrl());
+    }
+
+    public List<Lemma> findLemmas(Site site) {
+        return lemmaRepository.findAllBySite(site);
+    }
+
+    /**
+     * Запускает действие после фиксации текущей транзакции, чтобы потоки индексации
+     * видели уже сохраненные сайты.
+     */
+    private void afterCommit(Runnable action) {
 
-        if (!siteRepository.findById(site.getId()).get().getStatus().equals(Status.FAILED)) {
-            lemmaRepository.saveAll(lemmaList);
-            indexRepository.saveAll(indexList);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
         }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
+    private synchronized void dropSite(Site site) {
 
-    private synchronized void dropDatabase() {
+        invertedIndex.removeSite(site.getId());
+        contentCodec.forget(site.getId());
+        CrawlFrontier.delete(Path.of(input.getFrontierDir()), site.getId());
 
         entityManager.createNativeQuery(
-                "DELETE FROM `index` where id > 0;").executeUpdate();
+                "DELETE i FROM `index` i JOIN page p ON i.page_id = p.id WHERE p.site_id = :site")
+                .setParameter("site", site.getId()).executeUpdate();
+        entityManager.createNativeQuery(
+                "DELETE FROM lemma WHERE site_id = :site").setParameter("site", site.getId()).executeUpdate();
+        entityManager.createNativeQuery(
+                "DELETE c FROM page_content c JOIN page p ON c.page_id = p.id WHERE p.site_id = :site")
+                .setParameter("site", site.getId()).executeUpdate();
         entityManager.createNativeQuery(
-                "DELETE FROM lemma where id > 0;").executeUpdate();
+                "DELETE FROM page WHERE site_id = :site").setParameter("site", site.getId()).executeUpdate();
         entityManager.createNativeQuery(
-                "DELETE from page where id > 0;").executeUpdate();
+                "DELETE FROM content_dictionary WHERE site_id = :site").setParameter("site", site.getId()).executeUpdate();
         entityManager.createNativeQuery(
-                "DELETE from site where id > 0;").executeUpdate();
+                "DELETE FROM site WHERE id = :site").setParameter("site", site.getId()).executeUpdate();
 
     }
 
@@ -0,0 +1,125 @@
+package searchengine.services;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Однопроходный разбор текста на русские слова с подсчетом их количества.
+ * Слово копируется в таблицу только при первом появлении, повторы лишь увеличивают счетчик.
+ */
+class TokenCounter {
+
+    /**
+     * Самое длинное учитываемое слово. Слова длиннее, как и однобуквенные, пропускаются.
+     */
+    static final int MAX_TOKEN_LENGTH = 49;
+
+    private final char[] token = new char[MAX_TOKEN_LENGTH];
+    private int tokenLength;
+    private boolean tokenOverflow;
+
+    private char[][] keys = new char[256][];
+    private int[] hashes = new int[256];
+    private int[] counts = new int[256];
+    private int size;
+
+    void scan(CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            accept(text.charAt(i));
+        }
+    }
+
+    void scan(char[] text, int offset, int length) {
+        for (int i = offset, n = offset + length; i < n; i++) {
+            accept(text[i]);
+        }
+    }
+
+    void flush() {
+        if (tokenLength > 1 && !tokenOverflow) {
+            add(token, tokenLength);
+        }
+        tokenLength = 0;
+        tokenOverflow = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(ObjIntConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(new String(keys[i]), counts[i]);
+            }
+        }
+    }
+
+    static char toLowerRussian(char c) {
+        return c >= 'А' && c <= 'Я' ? (char) (c + ('а' - 'А')) : c;
+    }
+
+    private void accept(char c) {
+        c = toLowerRussian(c);
+        if (c >= 'а' && c <= 'я') {
+            if (tokenLength < MAX_TOKEN_LENGTH) {
+                token[tokenLength++] = c;
+            } else {
+                tokenOverflow = true;
+            }
+        } else if (tokenLength > 0 || tokenOverflow) {
+            flush();
+        }
+    }
+
+    private void add(char[] word, int length) {
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        hash ^= hash >>> 16;
+
+        int mask = keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            char[] key = keys[slot];
+            if (key == null) {
+                keys[slot] = Arrays.copyOf(word, length);
+                hashes[slot] = hash;
+                counts[slot] = 1;
+                if (++size * 2 > keys.length) {
+                    resize();
+                }
+                return;
+            }
+            if (hashes[slot] == hash && Arrays.equals(key, 0, key.length, word, 0, length)) {
+                counts[slot]++;
+                return;
+            }
+        }
+    }
+
+    private void resize() {
+
+        char[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldCounts = counts;
+
+        keys = new char[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        counts = new int[keys.length];
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
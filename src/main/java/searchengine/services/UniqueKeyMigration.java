@@ -0,0 +1,90 @@
+package searchengine.services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Создает уникальные ключи lemma (site_id, lemma) и index (lemma_id, page_id), на которых держатся
+ * пакетные upsert в BulkIndexWriter. Hibernate с ddl-auto: update не может добавить ключ к таблице
+ * с повторяющимися строками и только пишет ошибку в лог, после чего upsert превращаются в обычные INSERT.
+ * Поэтому повторы сначала удаляются: индексы лишних лемм переносятся на оставшуюся, повторные индексы
+ * удаляются, частоты лемм пересчитываются по индексам. Если ключ создать не удалось, приложение не запускается.
+ */
+@Log4j2
+@Order(0)
+@Component
+@RequiredArgsConstructor
+public class UniqueKeyMigration implements ApplicationRunner {
+
+    private static final String LEMMA_KEY = "uk_lemma_site_lemma";
+    private static final String INDEX_KEY = "uk_index_lemma_page";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+
+        boolean lemmaKey = keyExists("lemma", LEMMA_KEY);
+        boolean indexKey = keyExists("index", INDEX_KEY);
+        if (lemmaKey && indexKey) {
+            return;
+        }
+
+        log.info("UniqueKeyMigration in run started removing duplicate lemmas and indexes");
+        long start = System.currentTimeMillis();
+
+        if (!lemmaKey) {
+            removeDuplicateLemmas();
+        }
+        if (!indexKey) {
+            int removed = jdbcTemplate.update("DELETE i FROM `index` i JOIN `index` k " +
+                    "ON k.lemma_id = i.lemma_id AND k.page_id = i.page_id AND k.id < i.id");
+            log.info("UniqueKeyMigration in run removed {} duplicate indexes", removed);
+        }
+        int recounted = jdbcTemplate.update("UPDATE lemma l JOIN (SELECT lemma_id, COUNT(DISTINCT page_id) AS pages " +
+                "FROM `index` GROUP BY lemma_id) c ON c.lemma_id = l.id SET l.frequency = c.pages WHERE l.frequency <> c.pages");
+        log.info("UniqueKeyMigration in run recounted frequency of {} lemmas", recounted);
+
+        if (!lemmaKey) {
+            jdbcTemplate.execute("ALTER TABLE lemma ADD CONSTRAINT " + LEMMA_KEY + " UNIQUE (site_id, lemma)");
+        }
+        if (!indexKey) {
+            jdbcTemplate.execute("ALTER TABLE `index` ADD CONSTRAINT " + INDEX_KEY + " UNIQUE (lemma_id, page_id)");
+        }
+        if (!keyExists("lemma", LEMMA_KEY) || !keyExists("index", INDEX_KEY)) {
+            throw new IllegalStateException("UniqueKeyMigration failed to create unique keys of lemma and index tables");
+        }
+
+        log.info("UniqueKeyMigration in run created unique keys in {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Индексы лишних лемм переносятся на лемму с наименьшим id, затем лишние леммы удаляются.
+     * Индексы, которые уже есть у оставшейся леммы, не переносятся, а удаляются вместе с лишней леммой.
+     */
+    private void removeDuplicateLemmas() {
+
+        int moved = jdbcTemplate.update("UPDATE IGNORE `index` i JOIN lemma l ON i.lemma_id = l.id " +
+                "JOIN (SELECT site_id, lemma, MIN(id) AS keep_id FROM lemma GROUP BY site_id, lemma HAVING COUNT(*) > 1) k " +
+                "ON k.site_id = l.site_id AND k.lemma = l.lemma SET i.lemma_id = k.keep_id WHERE l.id <> k.keep_id");
+        jdbcTemplate.update("DELETE i FROM `index` i JOIN lemma l ON i.lemma_id = l.id JOIN lemma k " +
+                "ON k.site_id = l.site_id AND k.lemma = l.lemma AND k.id < l.id");
+        int removed = jdbcTemplate.update("DELETE l FROM lemma l JOIN lemma k " +
+                "ON k.site_id = l.site_id AND k.lemma = l.lemma AND k.id < l.id");
+
+        log.info("UniqueKeyMigration in removeDuplicateLemmas removed {} duplicate lemmas, moved {} indexes",
+                removed, moved);
+    }
+
+    private boolean keyExists(String table, String key) {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM information_schema.statistics " +
+                "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ? AND non_unique = 0",
+                Integer.class, table, key);
+        return count != null && count > 0;
+    }
+}
@@ -0,0 +1,147 @@
+package searchengine.services;
+
+/**
+ * Множество посещенных адресов одного сайта. Хранит 64-битные отпечатки адресов
+ * в таблицах с открытой адресацией, перед каждой таблицей - фильтр Блума,
+ * отсекающий большинство проверок новых адресов без обращения к таблице.
+ * Таблица разбита на сегменты со своими блокировками.
+ */
+public class VisitedUrls {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BLOOM_BITS_PER_SLOT = 8;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public VisitedUrls() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return true, если адрес не встречался раньше
+     */
+    public boolean add(String url) {
+        return add(fingerprint(url));
+    }
+
+    public boolean add(long fingerprint) {
+        return segment(fingerprint).add(fingerprint);
+    }
+
+    public boolean contains(String url) {
+        long fingerprint = fingerprint(url);
+        return segment(fingerprint).contains(fingerprint);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public static long fingerprint(CharSequence url) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, n = url.length(); i < n; i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    private Segment segment(long fingerprint) {
+        return segments[(int) (fingerprint >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static final class Segment {
+
+        private long[] table = new long[INITIAL_CAPACITY];
+        private long[] bloom = new long[INITIAL_CAPACITY * BLOOM_BITS_PER_SLOT / 64];
+        private int size;
+
+        synchronized boolean add(long fingerprint) {
+
+            if (mightContain(fingerprint) && find(fingerprint) >= 0) {
+                return false;
+            }
+            insert(fingerprint);
+            setBloom(fingerprint);
+            if (++size * 4 > table.length * 3) {
+                resize();
+            }
+            return true;
+        }
+
+        synchronized boolean contains(long fingerprint) {
+            return mightContain(fingerprint) && find(fingerprint) >= 0;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int find(long fingerprint) {
+            int mask = table.length - 1;
+            for (int slot = (int) fingerprint & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                if (table[slot] == fingerprint) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private void insert(long fingerprint) {
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = fingerprint;
+        }
+
+        private boolean mightContain(long fingerprint) {
+            int bits = bloom.length * 64;
+            int h1 = (int) (fingerprint >>> 32);
+            int h2 = (int) fingerprint;
+            for (int i = 1; i <= 3; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void setBloom(long fingerprint) {
+            int bits = bloom.length * 64;
+            int h1 = (int) (fingerprint >>> 32);
+            int h2 = (int) fingerprint;
+            for (int i = 1; i <= 3; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bits);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            bloom = new long[table.length * BLOOM_BITS_PER_SLOT / 64];
+            for (long fingerprint : old) {
+                if (fingerprint != 0) {
+                    insert(fingerprint);
+                    setBloom(fingerprint);
+                }
+            }
+        }
+    }
+}
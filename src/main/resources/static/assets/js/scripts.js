@@ -1590,26 +1590,15 @@ var API = function(){
                     $('select[name="site"] option').not(':first-child').remove();
                     result.statistics.detailed.forEach(function(site){
                         var $blockSiteExample = $('.Statistics-example').clone(true);
-                        var statusClass = '';
-                        switch (site.status) {
-                            case 'INDEXED':
-                                statusClass = 'Statistics-status_checked';
-                                break;
-                            case 'FAILED':
-                                statusClass = 'Statistics-status_cancel';
-                                break;
-                            case 'INDEXING':
-                                statusClass = 'Statistics-status_pause';
-                                break;
-                            
-                        }
                         $('select[name="site"]').append('' +
                             '<option value="' + site.url + '">' +
                                 site.url +
                             '</option>')
                         $blockSiteExample.removeClass('Statistics-example');
+                        $blockSiteExample.attr('data-url', site.url);
+                        progressStatus[site.url] = site.status;
                         $blockSiteExample.find('.Statistics-status')
-                            .addClass(statusClass)
+                            .addClass(statusClass(site.status))
                             .text(site.status)
                             .before(site.name + ' - ' + site.url);
                         var time = new Date(site.statusTime);
@@ -1670,9 +1659,80 @@ var API = function(){
                 }
                 $('.Site-loader').hide(0);
                 $('.Site-loadingIsComplete').css('visibility', 'visible').fadeIn(500);
+                subscribeProgress();
             }
         }
     };
+    var progressSource = null,
+        progressStatus = {};
+    function statusClass(status) {
+        switch (status) {
+            case 'INDEXED':
+                return 'Statistics-status_checked';
+            case 'FAILED':
+                return 'Statistics-status_cancel';
+            case 'INDEXING':
+                return 'Statistics-status_pause';
+        }
+        return '';
+    }
+    function loadStatistics() {
+        sendData(
+            send['statistics'].address,
+            send['statistics'].type,
+            '',
+            send['statistics'].action,
+            $('.Statistics')
+        )
+    }
+    // Ход индексации приходит событиями с сервера (/api/progress), статистика целиком
+    // запрашивается заново, только когда сайт закончил индексацию или появился новый сайт
+    function subscribeProgress() {
+        if (progressSource || !window.EventSource) {
+            return;
+        }
+        progressSource = new EventSource(backendApiUrl + '/progress');
+        progressSource.addEventListener('progress', function(e){
+            var reload = false;
+            JSON.parse(e.data).forEach(function(site){
+                var previous = progressStatus[site.url];
+                progressStatus[site.url] = site.status;
+                var found = updateSiteProgress(site);
+                if ((!found && previous === undefined)
+                    || (previous === 'INDEXING' && site.status !== 'INDEXING')) {
+                    reload = true;
+                }
+            });
+            if (reload) {
+                loadStatistics();
+            }
+        });
+    }
+    function updateSiteProgress(site) {
+        var $block = $('.Statistics .HideBlock').filter(function(){
+            return $(this).attr('data-url') === site.url;
+        });
+        if (!$block.length) {
+            return false;
+        }
+        $block.find('.Statistics-status')
+            .removeClass('Statistics-status_checked Statistics-status_cancel Statistics-status_pause')
+            .addClass(statusClass(site.status))
+            .text(site.status);
+        var $description = $block.find('.Statistics-description');
+        var $progress = $description.find('.Statistics-option_progress');
+        if (!$progress.length) {
+            $progress = $('<div class="Statistics-option Statistics-option_progress"></div>');
+            $description.find('.Statistics-option_error').before($progress);
+        }
+        $progress.html('<strong>Progress:</strong> fetched ' + site.fetched +
+            ', indexed ' + site.indexed +
+            ', lemmas ' + site.lemmas +
+            (site.fetchErrors ? ', fetch errors ' + site.fetchErrors : ''));
+        $description.find('.Statistics-option_error').html('<strong>Error:</strong> ' + site.error);
+        $block.find('.HideBlock-content').css('height', $description.outerHeight() + 40);
+        return true;
+    }
     function shiftCheck($element, wave){
         var text = '',
             check = $element.data('check');
@@ -1723,13 +1783,7 @@ var API = function(){
                     });
                 }
             });
-            sendData(
-                send['statistics'].address,
-                send['statistics'].type,
-                '',
-                send['statistics'].action,
-                $('.Statistics')
-            )
+            loadStatistics();
             var $send = $('[data-send]');
             $send.on('submit click', function(e){
                 var $this = $(this);